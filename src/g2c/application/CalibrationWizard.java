@@ -3,6 +3,7 @@ package g2c.application;
 import java.awt.BasicStroke;
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.EventQueue;
 import java.awt.Font;
 import java.awt.Graphics2D;
@@ -10,15 +11,21 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Arc2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.List;
 import java.util.prefs.Preferences;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.border.EmptyBorder;
 
+import g2c.preview.Thumbnail;
+import g2c.printers.Printer;
 import photon.file.PhotonFile;
 import photon.file.parts.PhotonFileLayer;
 import photon.file.parts.PhotonFilePreview;
+import photon.file.parts.PhotonLayer;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
@@ -42,13 +49,15 @@ public class CalibrationWizard extends JFrame {
 	JFrame frame;
 	JPanel panel = new JPanel();
 	JCheckBox invertBox = new JCheckBox("invert");
+	Printer printer;
 
 	/**
 	 * Create the frame.
 	 */
-	public CalibrationWizard() {
+	public CalibrationWizard(Printer printer) {
 		frame = this;
-		preview = new BufferedImage(Main.currPrinter.getScreenResolution().width, Main.currPrinter.getScreenResolution().height, BufferedImage.TYPE_INT_ARGB);
+		this.printer = printer;
+		preview = new BufferedImage(printer.getScreenResolution().width, printer.getScreenResolution().height, BufferedImage.TYPE_INT_ARGB);
 		
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		setBounds(100, 100, 1008, 640);
@@ -126,7 +135,7 @@ public class CalibrationWizard extends JFrame {
 	private void drawPattern() {
 		int segCount = (int) stepSpinner.getValue();
 		int segWidth = preview.getWidth() / segCount;
-		preview = new BufferedImage(Main.currPrinter.getScreenResolution().width, Main.currPrinter.getScreenResolution().height, BufferedImage.TYPE_INT_ARGB);
+		preview = new BufferedImage(printer.getScreenResolution().width, printer.getScreenResolution().height, BufferedImage.TYPE_INT_ARGB);
 		Graphics2D g = preview.createGraphics();
 		g.setColor(Color.BLACK);
 		double secIncr = (double) ((int) toSpinner.getValue() - (int) fromSpinner.getValue()) / (double) (segCount - 1);
@@ -182,10 +191,14 @@ public class CalibrationWizard extends JFrame {
 		int segWidth = preview.getWidth() / segCount;
 		double secIncr = (double) ((int) toSpinner.getValue() - (int) fromSpinner.getValue()) / (double) (segCount - 1);
 
-		PhotonFile exp = new PhotonFile(Main.currPrinter);
+		PhotonFile exp = new PhotonFile(printer);
 		
-		for (int currLayer = 0; currLayer < segCount; currLayer++) {
-			BufferedImage layerImage = new BufferedImage(Main.currPrinter.getScreenResolution().width, Main.currPrinter.getScreenResolution().height, BufferedImage.TYPE_INT_ARGB);
+		// the layers only depend on their index, so they are drawn and packed in parallel
+		int toSeconds = (int) toSpinner.getValue();
+		int previewHeight = preview.getHeight();
+		boolean invert = invertBox.isSelected();
+		List<PhotonLayer> layers = IntStream.range(0, segCount).parallel().mapToObj(currLayer -> {
+			BufferedImage layerImage = new BufferedImage(printer.getScreenResolution().width, printer.getScreenResolution().height, BufferedImage.TYPE_INT_ARGB);
 			Graphics2D g = layerImage.createGraphics();
 			g.setColor(Color.BLACK);
 			g.setStroke(new BasicStroke(3));
@@ -193,28 +206,31 @@ public class CalibrationWizard extends JFrame {
 			
 			for(int i = 0; i < segCount - currLayer; i++) {
 				int baseX = i * segWidth;
-				g.drawRect(baseX + 1, 1, segWidth - 1, preview.getHeight() - 1);
+				g.drawRect(baseX + 1, 1, segWidth - 1, previewHeight - 1);
 				
-				String text = "Test @ " + Integer.toString((int) toSpinner.getValue() - (int) ((double) i * secIncr)) + " sec";
+				String text = "Test @ " + Integer.toString(toSeconds - (int) ((double) i * secIncr)) + " sec";
 				AffineTransform orig = g.getTransform();
 				g.rotate(Math.PI/2);
 				int stringHeight = (int) g.getFontMetrics().getStringBounds(text, g).getHeight();
 				int stringWidth = (int) g.getFontMetrics().getStringBounds(text, g).getWidth();
-				g.drawString(text, preview.getHeight() / 2 - stringWidth / 2, - baseX - segWidth / 2 + stringHeight / 2 - 25);
+				g.drawString(text, previewHeight / 2 - stringWidth / 2, - baseX - segWidth / 2 + stringHeight / 2 - 25);
 				g.setTransform(orig);
 				
 			}
 			g.dispose();
 			
-			PhotonFileLayer layer = new PhotonFileLayer(layerImage, invertBox.isSelected(), exp.getPhotonFileHeader());
-			layer.setLayerExposure((float) ((currLayer == 0) ? ((int) fromSpinner.getValue()) : secIncr));
-			exp.addLayer(layer);
-			try {
-				exp.calculate(currLayer);
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+			return new PhotonLayer(layerImage, invert);
+		}).collect(Collectors.toList());
+		
+		List<PhotonFileLayer> fileLayers = exp.addLayers(layers);
+		for (int currLayer = 0; currLayer < segCount; currLayer++) {
+			fileLayers.get(currLayer).setLayerExposure((float) ((currLayer == 0) ? ((int) fromSpinner.getValue()) : secIncr));
+		}
+		try {
+			exp.calculate(info -> {});
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
 
 		exp.getPhotonFileHeader().setExposureBottomTimeSeconds((float) (int) fromSpinner.getValue());
@@ -222,8 +238,9 @@ public class CalibrationWizard extends JFrame {
 		exp.getPhotonFileHeader().setBottomLayers(1);
 		exp.adjustLayerSettings();
 		
-		PhotonFilePreview newPreview = new PhotonFilePreview(preview);
-		exp.setPreviewOne(newPreview);	exp.setPreviewTwo(newPreview);
+		Dimension screen = printer.getScreenResolution();
+		exp.setPreviewOne(new PhotonFilePreview(Thumbnail.render(preview, 0, 0, screen, printer.getPreviewSize(), false)));
+		exp.setPreviewTwo(new PhotonFilePreview(Thumbnail.render(preview, 0, 0, screen, printer.getSmallPreviewSize(), false)));
 		try {
 			exp.saveFile(f);
 		} catch (Exception e) {
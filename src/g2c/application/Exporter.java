@@ -5,13 +5,13 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.EventQueue;
 import java.awt.Font;
-import java.awt.Graphics2D;
-import java.awt.image.AffineTransformOp;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.prefs.Preferences;
 
 import javax.swing.JFrame;
@@ -26,14 +26,21 @@ import com.jgoodies.forms.layout.ColumnSpec;
 import com.jgoodies.forms.layout.FormSpecs;
 import com.jgoodies.forms.layout.RowSpec;
 
+import g2c.gerber.loader.Correction;
 import g2c.gerber.loader.GerberLoader;
+import g2c.gerber.loader.RenderContext;
+import g2c.gerber.loader.SpanRenderer;
+import g2c.preview.Thumbnail;
+import g2c.printers.Printer;
 import photon.file.PhotonFile;
 import photon.file.parts.PhotonFileLayer;
+import photon.file.parts.PhotonRleEncoder;
 import photon.file.parts.PhotonFilePreview;
 import photon.file.parts.PhotonLayer;
 import photon.file.ui.PhotonLayerImage;
 import java.awt.event.ActionListener;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
 import java.awt.event.ActionEvent;
 import javax.swing.JCheckBox;
 import javax.swing.SwingConstants;
@@ -43,13 +50,17 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.DefaultComboBoxModel;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.function.BooleanSupplier;
 
 public class Exporter {
 	private static Preferences    prefs = Preferences.userRoot().node(Exporter.class.getName());
 	JFrame frame;
 	LayerListObject layer;
+	RenderContext context;
 	JSpinner expTime = new JSpinner();
-	PhotonFile exp = new PhotonFile(Main.currPrinter);
+	PhotonFile exp;
 	PhotonLayerImage panel;
 	JCheckBox mirrorLayer = new JCheckBox("Mirror Layer");
 	JComboBox typeBox = new JComboBox();
@@ -60,15 +71,41 @@ public class Exporter {
 	JSpinner rotation = new JSpinner();
 	JSpinner offsetY = new JSpinner();
 	JSpinner offsetX = new JSpinner();
+	PreviewEngine<Settings, PhotonFile> previews = new PreviewEngine<>(40, this::render, this::showPreview);
+	// The layer as rendered by the last render(), rotated but not moved, and the settings it was rendered with.  Only
+	// used by the preview thread.
+	SpanRenderer spans;
+	List<Object> spansKey;
+	Point spansOrigin;
+	
+	/**
+	 * The values of the controls a preview is rendered with, taken on the event thread
+	 */
+	private static class Settings {
+		double offsetX;
+		double offsetY;
+		int angle;
+		boolean mirror;
+		boolean invert;
+		GerberLoader drills;    // layer whose holes are cleared, or null
+		double newHoleSize;     // in inches, or -1 to clear all of the drill layer
+	}
 	
 	/**
 	 * Initialize the contents of the frame.
 	 */
-	public Exporter(LayerListObject layer) {
+	public Exporter(LayerListObject layer, RenderContext context) {
 		this.layer = layer;
+		this.context = context;
+		exp = new PhotonFile(context.getPrinter());
 		frame = new JFrame();
 		frame.setBounds(100, 100, 824, 467);
 		frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+		frame.addWindowListener(new WindowAdapter() {
+			public void windowClosed(WindowEvent e) {
+				previews.dispose();
+			}
+		});
 		frame.getContentPane().setLayout(new FormLayout(new ColumnSpec[] {
 				FormSpecs.UNRELATED_GAP_COLSPEC,
 				ColumnSpec.decode("163px"),
@@ -168,7 +205,7 @@ public class Exporter {
 		frame.getContentPane().add(rotation, "10, 12, 7, 1");
 		frame.getContentPane().add(btnSave, "4, 16, fill, top");
 		
-		panel = new PhotonLayerImage(layer.getImage().getWidth(), layer.getImage().getHeight());
+		panel = new PhotonLayerImage(context.getPrinter().getScreenResolution().width, context.getPrinter().getScreenResolution().height);
 		
 		frame.getContentPane().add(panel, "2, 2, 3, 12, fill, top");
 		
@@ -247,66 +284,98 @@ public class Exporter {
 		updatePreview();
 	}
 	
+	/**
+	 * Renders the preview with the current settings in the background, quick changes are coalesced
+	 */
 	public void updatePreview() {
-		layer.applyCorrection((double) offsetX.getValue(), (double) offsetY.getValue(), (int) rotation.getValue());
-		if(drillOLBox.getSelectedIndex() > 0) {
-			Main.frame.list.getModel().getElementAt(drillOLBox.getSelectedIndex() - 1).gerber.applyCorrection((double) offsetX.getValue(), (double) offsetY.getValue(), (int) rotation.getValue());
-		}
-		setLayer(layer.getCorrectedImage());
+		Settings settings = new Settings();
+		settings.offsetX = (double) offsetX.getValue();
+		settings.offsetY = (double) offsetY.getValue();
+		settings.angle = (int) rotation.getValue();
+		settings.mirror = mirrorLayer.isSelected();
+		settings.invert = typeBox.getSelectedIndex() == 0;
+		settings.drills = drillOLBox.getSelectedIndex() > 0 ? Main.frame.list.getModel().getElementAt(drillOLBox.getSelectedIndex() - 1).gerber : null;
+		settings.newHoleSize = chckbxOverrideHoleDiameter.isSelected() ? (double) newHoleDiam.getValue() / 25.4 : -1;	//gerber lib talks imperial :(
+		previews.request(settings);
 	}
 	
-	public void setLayer(BufferedImage data) {
-		exp = new PhotonFile(Main.currPrinter);
-		BufferedImage flipped = deepCopyImage(data);
-		AffineTransform flipper = new AffineTransform();
-		
-		if(drillOLBox.getSelectedIndex() > 0) {
-			double newHoleSize = (double) newHoleDiam.getValue() / 25.4;	//gerber lib talks imperial :(
-			flipped = Main.frame.list.getModel().getElementAt(drillOLBox.getSelectedIndex() - 1).gerber.overlayDrills(flipped, chckbxOverrideHoleDiameter.isSelected() ? newHoleSize : -1, Main.currPrinter.getScreenPPI().getWidth(), Main.currPrinter.getScreenPPI().getHeight(), Main.currPrinter.getScreenResolution().width, Main.currPrinter.getScreenResolution().height, true);
+	private void showPreview(PhotonFile file) {
+		exp = file;
+		panel.drawLayer(exp.getLayer(0), 0);
+		panel.repaint();
+	}
+	
+	/**
+	 * Renders the layer straight to the RLE data of a new PhotonFile, row by row from the covered spans in PhotonLayer
+	 * orientation.  The spans are kept, so when only the offsets changed the layer is just moved by whole pixels.
+	 * Runs on the preview thread.
+	 */
+	private PhotonFile render(Settings settings, BooleanSupplier cancelled) throws Exception {
+		// built from the snapshot only, other exporters of the same board have their own.  The revision is read first,
+		// so spans rendered from bounds that changed meanwhile are rendered again by the next request.
+		int revision = context.getPositions().getRevision();
+		Correction correction = new Correction(context, settings.offsetX, settings.offsetY, settings.angle);
+		PhotonFile file = new PhotonFile(context.getPrinter());
+		Dimension screen = context.getPrinter().getScreenResolution();
+		Dimension margin = context.getPrinter().getBezelMargin();
+		
+		// screen image -> mirror -> bezel margin -> layer orientation (a row of the layer is a column of the image)
+		AffineTransform toLayer = new AffineTransform(0, 1, 1, 0, 0, 0);
+		toLayer.translate(settings.mirror ? -margin.getWidth() : margin.getWidth(), margin.getHeight());
+		if(settings.mirror) {
+			toLayer.scale(-1, 1); toLayer.translate(-screen.width, 0);
 		}
 		
-		if(mirrorLayer.isSelected()) {
-			flipper.scale(-1, 1); flipper.translate(-flipped.getWidth(), 0);
+		List<Object> key = Arrays.asList(settings.angle, settings.mirror, settings.drills, settings.newHoleSize, revision);
+		if(!key.equals(spansKey)) {
+			spansKey = null;
+			if(!renderSpans(toLayer, correction.getRotation(), settings, cancelled)) return null;
+			spansKey = key;
 		}
-
-		AffineTransformOp dolphin = new AffineTransformOp(flipper, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-		flipped = dolphin.filter(flipped, null);
-		boolean invert = typeBox.getSelectedIndex() == 0;
-		
-		BufferedImage out = new BufferedImage(data.getWidth(), data.getHeight(), data.getType());
-		Graphics2D outDrawer = out.createGraphics();
-		Dimension margin = Main.currPrinter.getBezelMargin();
-		outDrawer.drawImage(flipped, (int) (mirrorLayer.isSelected() ? -margin.getWidth() : margin.getWidth()), (int) margin.getHeight(), null);
-		outDrawer.dispose();
+		Point2D offset = toLayer.deltaTransform(correction.getOffset(), null);
 		
-		PhotonFileLayer layer = new PhotonFileLayer(out, invert, exp.getPhotonFileHeader());
-		exp.addLayer(layer);
+		PhotonRleEncoder encoder = new PhotonRleEncoder(screen.height);
+		spans.encode(encoder, settings.invert, screen.width, spansOrigin.x + (int) Math.round(offset.getX()), spansOrigin.y + (int) Math.round(offset.getY()));
+		file.addLayer(new PhotonFileLayer(encoder, file.getPhotonFileHeader()));
+		if(cancelled.getAsBoolean()) return null;
 		
-		try {
-			exp.calculate(0);
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		panel.drawLayer(exp.getLayer(0), 0);
-		frame.update(frame.getGraphics());
+		file.calculate(0);
+		return file;
+	}
+	
+	/**
+	 * Renders the layer and drill guide with the rotation of the correction into spans that just cover them
+	 * @param rotation rotation of the correction in render units
+	 * @return false if cancelled
+	 */
+	private boolean renderSpans(AffineTransform toLayer, AffineTransform rotation, Settings settings, BooleanSupplier cancelled) {
+		Rectangle bounds = layer.gerber.getPixelBounds(toLayer, rotation);
+		if(settings.drills != null) bounds.add(settings.drills.getPixelBounds(toLayer, rotation));
+		bounds.grow(1, 1);
+		
+		AffineTransform toSpans = AffineTransform.getTranslateInstance(-bounds.x, -bounds.y);
+		toSpans.concatenate(toLayer);
+		spans = new SpanRenderer(bounds.width, bounds.height);
+		spansOrigin = bounds.getLocation();
+		layer.gerber.addTo(spans, toSpans, rotation);
+		if(cancelled.getAsBoolean()) return false;
+		if(settings.drills != null) settings.drills.addDrillsTo(spans, settings.newHoleSize, toSpans, rotation);
+		return !cancelled.getAsBoolean();
 	}
 	
 	private void exportFile(File f) {
+		exp = previews.finish();
+		if(exp == null) return;
 		exp.setExposure((int) expTime.getValue());
-		PhotonFilePreview newPreview = null;
-		
-		AffineTransform flipper = new AffineTransform();
-		
-		//flipper.translate((int) xMargin.getValue(), (int) yMargin.getValue());
-		if(mirrorLayer.isSelected()) {
-			flipper.scale(-1, 1); flipper.translate(flipper.getTranslateX() - layer.getImage().getWidth(), flipper.getTranslateY());
-		}
-		
-		AffineTransformOp dolphin = new AffineTransformOp(flipper, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
 		
-		newPreview = new PhotonFilePreview(dolphin.filter(layer.getImage(), null));
-		exp.setPreviewOne(newPreview);	exp.setPreviewTwo(newPreview);
+		// the previews are scaled from the layer's own raster, at the sizes the printer shows
+		Printer printer = context.getPrinter();
+		Dimension screen = printer.getScreenResolution();
+		Point offset = layer.gerber.getScreenOffset();
+		BufferedImage image = layer.gerber.getRaster().getImage(layer.color);
+		boolean mirror = mirrorLayer.isSelected();
+		exp.setPreviewOne(new PhotonFilePreview(Thumbnail.render(image, offset.x, offset.y, screen, printer.getPreviewSize(), mirror)));
+		exp.setPreviewTwo(new PhotonFilePreview(Thumbnail.render(image, offset.x, offset.y, screen, printer.getSmallPreviewSize(), mirror)));
 		try {
 			exp.saveFile(f);
 		} catch (Exception e) {
@@ -314,11 +383,4 @@ public class Exporter {
 			e.printStackTrace();
 		}
 	}
-	
-	static BufferedImage deepCopyImage(BufferedImage bi) {
-		 ColorModel cm = bi.getColorModel();
-		 boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
-		 WritableRaster raster = bi.copyData(null);
-		 return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
-	}
 }
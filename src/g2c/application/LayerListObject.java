@@ -1,8 +1,11 @@
 package g2c.application;
 
 import java.awt.Color;
-import java.awt.geom.AffineTransform;
+import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.JCheckBox;
 
@@ -13,29 +16,48 @@ public class LayerListObject extends JCheckBox{
 	String name = "layer";
 	Color color = Color.pink;
 	
+	/**
+	 * Creates the list entry for a layer, the file is not read until load() is called
+	 */
 	public LayerListObject(GerberLoader gerber, Color c, String name) {
 		color = c;
 		this.gerber = gerber;
 		this.name = name;
-		gerber.readFile();
-		gerber.renderImage(c);
 	}
 	
 	public LayerListObject(String name) {
 		this.name = name;
 	}
 	
-	public BufferedImage getImage() {
-		return gerber.getImage();
+	/**
+	 * Draws the layer in its color, g has to be in printer screen pixels
+	 */
+	public void draw(Graphics2D g) {
+		Point offset = gerber.getScreenOffset();
+		g.drawImage(gerber.getRaster().getImage(color), offset.x, offset.y, null);
 	}
 	
-	public BufferedImage getCorrectedImage() {
-		return gerber.getCorrectedImage();
+	/**
+	 * Draws a level of the layer's coverage, see LayerRaster.getImage(Color, int), g has to be in printer screen pixels
+	 */
+	public void draw(Graphics2D g, int level) {
+		Point offset = gerber.getScreenOffset();
+		BufferedImage image = gerber.getRaster().getImage(color, level);
+		g.drawImage(image, offset.x, offset.y, image.getWidth() << level, image.getHeight() << level, null);
 	}
 	
+	/**
+	 * @return what the drawn layer depends on, equal keys draw the same
+	 */
+	public List<Object> getDrawKey() {
+		return Arrays.asList(gerber.getRaster(), color, gerber.getScreenOffset());
+	}
+	
+	/**
+	 * Only changes the color table of the rendered layer, the geometry is not rendered again
+	 */
 	public void setColor(Color c) {
 		color = c;
-		gerber.renderImage(c);
 	}
 	
 	public String toString() {
@@ -47,7 +69,19 @@ public class LayerListObject extends JCheckBox{
 	}
 
 	public void forceRender() {
-		gerber.renderImage();
+		gerber.renderRaster();
+	}
+
+	/**
+	 * Parses the Gerber file, safe to call from a worker thread
+	 * @return false if the file could not be read
+	 */
+	public boolean load() {
+		return gerber.readFile();
+	}
+
+	public double getLoadProgress() {
+		return gerber.getLoadProgress();
 	}
 
 	public Color getColor() {
@@ -62,7 +96,10 @@ public class LayerListObject extends JCheckBox{
 		this.name = newName;
 	}
 
-	public void applyCorrection(double xOffset, double yOffset, int angle) {
-		gerber.applyCorrection(xOffset, yOffset, angle);
+	/**
+	 * Removes the layer's bounds from its render context when the layer is deleted
+	 */
+	public void unload() {
+		gerber.unload();
 	}
 }
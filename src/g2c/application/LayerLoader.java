@@ -0,0 +1,115 @@
+package g2c.application;
+
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+/**
+ * Loads a set of Gerber layers off the event thread.  Every file is parsed and rendered on a shared worker pool and
+ * added to the layer list as soon as it is done, so a set of files takes about as long as its largest file.
+ *
+ * Every layer is rendered once into its own coverage raster, which does not depend on the common bounds, so layers
+ * that finish later or grow the bounds never cause the others to be rendered again.
+ */
+public class LayerLoader extends SwingWorker<Void, LayerListObject> {
+	private static final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+		Thread t = new Thread(r, "layer-loader");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final List<LayerListObject> layers;
+	private final DefaultListModel<LayerListObject> model;
+	private final JProgressBar progress;
+	private final Component view;
+	private final Timer progressTimer;
+	private volatile int finished = 0;
+
+	/**
+	 * Must be created on the event thread
+	 * @param layers the new layers, not yet loaded
+	 * @param model list the layers are added to once loaded
+	 * @param progress shows the progress of the load, hidden when done
+	 * @param view repainted whenever a layer was added
+	 */
+	public LayerLoader(List<LayerListObject> layers, DefaultListModel<LayerListObject> model, JProgressBar progress, Component view) {
+		this.layers = new ArrayList<>(layers);
+		this.model = model;
+		this.progress = progress;
+		this.view = view;
+		progressTimer = new Timer(100, e -> updateProgress());
+	}
+
+	@Override
+	protected Void doInBackground() throws Exception {
+		CompletionService<LayerListObject> loads = new ExecutorCompletionService<>(pool);
+		for(LayerListObject layer : layers) {
+			loads.submit(() -> {
+				if(!layer.load()) return null;
+				layer.forceRender();
+				return layer;
+			});
+		}
+		for(int i = 0; i < layers.size(); i++) {
+			try {
+				LayerListObject layer = loads.take().get();
+				if(layer != null) publish(layer);
+			} catch (ExecutionException ex) {
+				ex.getCause().printStackTrace();
+			}
+			finished++;
+		}
+		return null;
+	}
+
+	/**
+	 * Shows the progress bar and starts loading
+	 */
+	public void start() {
+		progress.setValue(0);
+		progress.setStringPainted(true);
+		progress.setVisible(true);
+		updateProgress();
+		progressTimer.start();
+		execute();
+	}
+
+	private void updateProgress() {
+		double sum = 0;
+		for(LayerListObject layer : layers) {
+			sum += layer.getLoadProgress();
+		}
+		progress.setValue((int) (100 * sum / layers.size()));
+		progress.setString("Loading " + finished + "/" + layers.size() + " layers");
+	}
+
+	@Override
+	protected void process(List<LayerListObject> chunks) {
+		for(LayerListObject layer : chunks) {
+			model.addElement(layer);
+		}
+		view.repaint();
+	}
+
+	@Override
+	protected void done() {
+		progressTimer.stop();
+		progress.setVisible(false);
+		try {
+			get();
+		} catch (InterruptedException | ExecutionException ex) {
+			ex.printStackTrace();
+		}
+		view.repaint();
+	}
+}
@@ -10,9 +10,9 @@ import javax.swing.border.EmptyBorder;
 
 import g2c.gerber.loader.GerberExtensionHandler;
 import g2c.gerber.loader.GerberLoader;
+import g2c.gerber.loader.RenderContext;
 import g2c.preview.GerberColors;
 import g2c.printers.ElegooMars;
-import g2c.printers.Printer;
 
 import javax.swing.JMenuBar;
 import javax.swing.JMenu;
@@ -20,10 +20,13 @@ import javax.swing.JToggleButton;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
+import javax.swing.JProgressBar;
 
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.prefs.Preferences;
 import java.awt.event.ActionEvent;
 import javax.swing.JList;
@@ -42,8 +45,9 @@ public class Main extends JFrame {
 	private JPanel contentPane;
 	static Main frame;
 	JList<LayerListObject> list = new JList<LayerListObject>();
-	public static Printer currPrinter = new ElegooMars();
+	RenderContext renderContext = new RenderContext(new ElegooMars());
 	private LayerSettings layerSettings = null;
+	private JProgressBar loadProgress = new JProgressBar(0, 100);
 
 	/**
 	 * Launch the application.
@@ -79,7 +83,7 @@ public class Main extends JFrame {
 		JMenuItem mntmNewMenuItem = new JMenuItem("Calibration Wizard");
 		mntmNewMenuItem.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				new CalibrationWizard().setVisible(true);
+				new CalibrationWizard(renderContext.getPrinter()).setVisible(true);
 			}
 		});
 		mnNewMenu_1.add(mntmNewMenuItem);
@@ -120,6 +124,8 @@ public class Main extends JFrame {
 				FormSpecs.GLUE_ROWSPEC,
 				FormSpecs.UNRELATED_GAP_ROWSPEC,
 				RowSpec.decode("23px"),
+				FormSpecs.RELATED_GAP_ROWSPEC,
+				RowSpec.decode("15px"),
 				FormSpecs.UNRELATED_GAP_ROWSPEC,}));
 		
 		list.setModel(new DefaultListModel<>());
@@ -134,28 +140,37 @@ public class Main extends JFrame {
 				ch.showDialog(frame, "ye");
 				File[] newLayerFiles = ch.getSelectedFiles();
 				if(newLayerFiles.length > 0) {
+					List<LayerListObject> newLayers = new ArrayList<>();
 					for(File f : newLayerFiles) {
 						String ext = (f.getName().indexOf('.') == -1) ? null : f.getName().substring(f.getName().indexOf('.'));
 						System.out.println("ext = " +  f.length());
-						if(ext.hashCode() == ".rar".hashCode() || ext.hashCode() == ".zip".hashCode() || ext.hashCode() == ".log".hashCode() || f.length() > 10000000) continue;
-						GerberLoader load = new GerberLoader(f);
+						if(ext.hashCode() == ".rar".hashCode() || ext.hashCode() == ".zip".hashCode() || ext.hashCode() == ".log".hashCode()) continue;
+						GerberLoader load = new GerberLoader(f, renderContext);
 						LayerListObject newObj = new LayerListObject(load, GerberExtensionHandler.getDefaultLayerColor(ext), GerberExtensionHandler.getDefaultLayerName(ext));
-						((DefaultListModel<LayerListObject>) list.getModel()).addElement(newObj);
+						newLayers.add(newObj);
 					}
 					prefs.put("default.dir", newLayerFiles[0].getAbsolutePath());
-					layerAddedHandler();
+					// Files are parsed and rendered in parallel, each layer shows up in the list when it is done
+					if(!newLayers.isEmpty()) new LayerLoader(newLayers, (DefaultListModel<LayerListObject>) list.getModel(), loadProgress, frame).start();
 				}
 			}
 		});
 		contentPane.add(btnNewButton, "2, 4, right, top");
 		
-		JPanel panel = new PreviewPane(list);
-		contentPane.add(panel, "8, 2, 1, 3, fill, fill");
+		JPanel panel = new PreviewPane(list, renderContext.getPrinter());
+		contentPane.add(panel, "8, 2, 1, 5, fill, fill");
+		
+		loadProgress.setVisible(false);
+		contentPane.add(loadProgress, "2, 6, 5, 1, fill, fill");
 		
 		JButton btnNewButton_1 = new JButton("-");
 		btnNewButton_1.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				if(list.getSelectedIndex() != -1) ((DefaultListModel<LayerListObject>) list.getModel()).remove(list.getSelectedIndex());
+				if(list.getSelectedIndex() != -1) {
+					LayerListObject removed = ((DefaultListModel<LayerListObject>) list.getModel()).remove(list.getSelectedIndex());
+					// The removed layer may have defined the common bounds, the others are placed again when repainted
+					removed.unload();
+				}
 				list.clearSelection();
 				repaint();
 			}
@@ -165,18 +180,10 @@ public class Main extends JFrame {
 		JButton btnNewButton_2 = new JButton("Export");
 		btnNewButton_2.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				Exporter exp = new Exporter(list.getSelectedValue());
+				Exporter exp = new Exporter(list.getSelectedValue(), renderContext);
 				exp.frame.setVisible(true);
 			}
 		});
 		contentPane.add(btnNewButton_2, "6, 4");
 	}
-	
-	public void layerAddedHandler() {
-		DefaultListModel<LayerListObject> objects = (DefaultListModel<LayerListObject>) list.getModel();
-		for(int i = 0; i < list.getModel().getSize(); i++) {
-			objects.getElementAt(i).forceRender();
-		}
-		repaint();
-	}
 }
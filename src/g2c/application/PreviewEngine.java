@@ -0,0 +1,125 @@
+package g2c.application;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Renders previews on a background thread.  Every change of the settings is passed to request() on the event thread,
+ * and changes that come in quicker than the delay are coalesced into one render of the latest settings.  Each request
+ * starts a new generation, a running render sees that it is stale through its cancelled check and gives up, and only
+ * the result of the latest generation is published, on the event thread.
+ *
+ * @param <S> snapshot of the settings, taken on the event thread
+ * @param <R> rendered preview
+ */
+public class PreviewEngine<S, R> {
+	public interface Renderer<S, R> {
+		/**
+		 * Renders the settings, called on the worker thread
+		 * @param cancelled true once newer settings were requested, the result is not used then
+		 * @return the preview, or null if cancelled
+		 */
+		R render (S settings, BooleanSupplier cancelled) throws Exception;
+	}
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "preview");
+		t.setDaemon(true);
+		return t;
+	});
+	private final Renderer<S, R> renderer;
+	private final Consumer<R> publisher;
+	private final Timer debounce;
+	private final AtomicInteger generation = new AtomicInteger();
+	// Only used on the event thread
+	private S pending;
+	private Future<R> running;
+	private int runningGeneration = -1;
+	private R latest;
+	private int latestGeneration = -1;
+
+	/**
+	 * @param delay milliseconds without a new request before a render starts
+	 * @param publisher receives the latest preview on the event thread
+	 */
+	public PreviewEngine (int delay, Renderer<S, R> renderer, Consumer<R> publisher) {
+		this.renderer = renderer;
+		this.publisher = publisher;
+		debounce = new Timer(delay, e -> start());
+		debounce.setRepeats(false);
+	}
+
+	/**
+	 * Renders the settings once no newer ones came in for the delay, must be called on the event thread
+	 */
+	public void request (S settings) {
+		pending = settings;
+		generation.incrementAndGet();
+		debounce.restart();
+	}
+
+	private void start () {
+		int gen = generation.get();
+		S settings = pending;
+		BooleanSupplier cancelled = () -> gen != generation.get();
+		runningGeneration = gen;
+		running = worker.submit(() -> {
+			try {
+				R result = renderer.render(settings, cancelled);
+				if (result != null && !cancelled.getAsBoolean()) {
+					SwingUtilities.invokeLater(() -> publish(gen, result));
+				}
+				return result;
+			} catch (Exception ex) {
+				ex.printStackTrace();
+				return null;
+			}
+		});
+	}
+
+	private void publish (int gen, R result) {
+		if (gen != generation.get() || gen == latestGeneration) return;
+		latest = result;
+		latestGeneration = gen;
+		publisher.accept(result);
+	}
+
+	/**
+	 * Waits for the preview of the latest settings, starting its render right away if it is still delayed.  Must be
+	 * called on the event thread, which is blocked until the render is done.
+	 * @return the preview of the latest settings, or null if rendering failed
+	 */
+	public R finish () {
+		int gen = generation.get();
+		if (latestGeneration == gen) return latest;
+		if (runningGeneration != gen) {
+			debounce.stop();
+			start();
+		}
+		try {
+			R result = running.get();
+			if (result != null) publish(gen, result);
+			return result;
+		} catch (InterruptedException | ExecutionException ex) {
+			ex.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Stops the worker, pending and running renders are dropped
+	 */
+	public void dispose () {
+		debounce.stop();
+		generation.incrementAndGet();
+		worker.shutdown();
+	}
+}
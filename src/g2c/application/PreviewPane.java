@@ -4,26 +4,38 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Toolkit;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.DefaultListModel;
 import javax.swing.JList;
 import javax.swing.JPanel;
 
+import g2c.printers.Printer;
+
 public class PreviewPane extends JPanel{
 	JList<LayerListObject> list;
 	DefaultListModel<LayerListObject> objects;
 	LayerListObject layer;
+	Printer printer;
 	
 	boolean singleLayer = false;
 	
-	public PreviewPane(JList list) {
+	private static final int MAX_LEVEL = 6;  // coverage at 1/64 of the screen size
+	private BufferedImage composite;         // the shown layers at the panel size
+	private List<Object> compositeKey;       // what the composite was drawn from
+	
+	public PreviewPane(JList list, Printer printer) {
 		this.list = list;
+		this.printer = printer;
 		objects = (DefaultListModel<LayerListObject>) list.getModel();
 	}
 	
-	public PreviewPane(LayerListObject layer) {
+	public PreviewPane(LayerListObject layer, Printer printer) {
 		this.layer = layer;
+		this.printer = printer;
 		singleLayer = true;
 	}
 	
@@ -31,31 +43,61 @@ public class PreviewPane extends JPanel{
 	
 	@Override
 	public void paint (Graphics g) {
-		double scaleX = (double) (getWidth() - 6) / Main.currPrinter.getScreenResolution().getWidth();
-		double scaleY = (double) (getHeight() - 6) / Main.currPrinter.getScreenResolution().getHeight();
+		double scaleX = (double) (getWidth() - 6) / printer.getScreenResolution().getWidth();
+		double scaleY = (double) (getHeight() - 6) / printer.getScreenResolution().getHeight();
 		double scale = Math.min(scaleX, scaleY);
-		int width = (int) (scale * Main.currPrinter.getScreenResolution().getWidth());
-		int height = (int) (scale * Main.currPrinter.getScreenResolution().getHeight());
+		int width = (int) (scale * printer.getScreenResolution().getWidth());
+		int height = (int) (scale * printer.getScreenResolution().getHeight());
+		if(width <= 0 || height <= 0) return;
 		
+		List<LayerListObject> shown = new ArrayList<>();
 		if(singleLayer) {
-			g.drawImage(layer.getImage(), 3, 3, width, height, null);
-			
-		}else {
-			
-			if(list.getSelectedValue() == null) {
-				for(int i = 0; i < list.getModel().getSize(); i++) {
-					System.out.println("now");
-					g.drawImage(objects.getElementAt(i).getImage(), 3, 3, width, height, null);
-				}
-			}else {
-				g.drawImage(list.getSelectedValue().getImage(), 3, 3, width, height, null);
+			shown.add(layer);
+		}else if(list.getSelectedValue() == null) {
+			for(int i = 0; i < list.getModel().getSize(); i++) {
+				shown.add(objects.getElementAt(i));
 			}
+		}else {
+			shown.add(list.getSelectedValue());
+		}
+		
+		// The layers are only composited again when one of them, its color or the size changed
+		List<Object> key = new ArrayList<>();
+		key.add(width);
+		key.add(height);
+		for(LayerListObject l : shown) {
+			key.add(l.getDrawKey());
 		}
-		if(objects.size() > 0) {
+		if(composite == null || !key.equals(compositeKey)) {
+			composite = composite(shown, scale, width, height);
+			compositeKey = key;
+		}
+		g.drawImage(composite, 3, 3, null);
+		
+		if(!singleLayer && objects.size() > 0) {
 			((Graphics2D) g).setColor(Color.gray);
 	  		((Graphics2D) g).setStroke(new BasicStroke(2));
 	  		((Graphics2D) g).drawRect(3, 3, width, height);
 		}
 	}
+	
+	/**
+	 * Draws the layers in printer screen pixels, each at its own offset, from the level of their coverage that is the
+	 * smallest still at least as large as the panel shows it
+	 */
+	private BufferedImage composite(List<LayerListObject> shown, double scale, int width, int height) {
+		int level = 0;
+		while(level < MAX_LEVEL && (2 << level) * scale <= 1) level++;
+		
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D screen = image.createGraphics();
+		screen.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		screen.scale(scale, scale);
+		for(LayerListObject l : shown) {
+			l.draw(screen, level);
+		}
+		screen.dispose();
+		return image;
+	}
 
 }
@@ -1,11 +1,42 @@
 package g2c.gerber.contents;
 
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
 import java.util.LinkedList;
 import java.util.List;
 
+import g2c.gerber.loader.GerberLoader;
+
 public class Aperture {
+	// Aperture types
+	public static final int      CIRCLE = 1;
+	public static final int      RECTANGLE = 2;
+	public static final int      OBROUND = 3;
+	public static final int      POLYGON = 4;
+	// Aperture Macro Primitive Types
+	public static final int      PRIM_CIRCLE = 10;
+	public static final int      PRIM_VLINE = 11;
+	public static final int      PRIM_CLINE = 12;
+	public static final int      PRIM_OUTLINE = 13;
+	public static final int      PRIM_POLYGON = 14;
+	public static final int      PRIM_MOIRE = 15;
+	public static final int      PRIM_THERMAL = 16;
+
 	public int           type;
 	public List<Double>  parms = new LinkedList<>();
+	public int           index = -1;      // Position in the PrimitiveStore aperture table, -1 until registered
+
+	private Shape        flashShape;      // Geometry of a flash at 0,0, built once on first use
+	private boolean      flashBuilt = false;
+	private FlashStamp   stamp;           // Pre-rasterized flash for the last used scale and color
 
     public Aperture (int type) {
     	this.type = type;
@@ -14,4 +45,199 @@ public class Aperture {
     public void addParm (double parm) {
     	parms.add(parm);
     }
-}
\ No newline at end of file
+
+    // Scale values (to improve Shape precision)
+    private static double d (double val) {
+    	return val * GerberLoader.renderScale;
+    }
+
+	/**
+	 * Build the filled shape of a flash of this Aperture by translating the cached geometry of a flash at 0,0
+	 * @param x1 x coord of the center of the shape in render units
+	 * @param y1 y coord of the center of the shape in render units
+	 * @return the shape, or null if flashing this aperture type is not implemented
+	 */
+    public Shape createFlash (double x1, double y1) {
+    	Shape shape = getFlashShape();
+    	if (shape == null) {
+    		return null;
+    	}
+    	return AffineTransform.getTranslateInstance(x1, y1).createTransformedShape(shape);
+    }
+
+    /**
+     * @return the shape of a flash of this Aperture centered at 0,0, or null if the aperture type is not implemented
+     */
+    public Shape getFlashShape () {
+    	if (!flashBuilt) {
+    		flashShape = buildFlash(0, 0);
+    		flashBuilt = true;
+    	}
+    	return flashShape;
+    }
+
+    /**
+     * Returns the pre-rasterized flash of this Aperture for the given pixel scale, rebuilding it when the scale or
+     * color changed since the last call.
+     * @return the stamp, or null if the flash is not implemented or too large to be worth stamping
+     */
+    public FlashStamp getStamp (double scaleX, double scaleY, Color color) {
+    	if (stamp == null || !stamp.matches(scaleX, scaleY, color)) {
+    		Shape shape = getFlashShape();
+    		if (shape == null) {
+    			return null;
+    		}
+    		stamp = new FlashStamp(shape, scaleX, scaleY, color);
+    	}
+    	return stamp.isUsable() ? stamp : null;
+    }
+
+    private Shape buildFlash (double x1, double y1) {
+	    double wid = d(parms.get(0));
+	    if (type == CIRCLE) {
+	    	return new Ellipse2D.Double(x1 - wid / 2, y1 - wid / 2, wid, wid);
+    	} else if (type == RECTANGLE) {
+    		double hyt = d(parms.get(1));
+    		return new Rectangle2D.Double(x1 - wid / 2, y1 - hyt / 2, wid, hyt);
+	    } else if (type == OBROUND) {
+	    	double hyt = d(parms.get(1));
+	    	double eRadius = Math.min(wid, hyt);
+	    	return new RoundRectangle2D.Double(x1 - wid / 2, y1 - hyt / 2, wid, hyt, eRadius, eRadius);
+	    } else  if (type == POLYGON) {
+	    	double radius = d(parms.get(0) / 2.0);
+	    	double sides = parms.get(1);
+	    	double start = parms.get(2);
+	    	Path2D.Double path = new Path2D.Double();
+	    	boolean first = true;
+	    	for (int ii = 0; ii < sides; ii++) {
+	    		double cx = x1 + radius * Math.cos((start + 360 * ii / sides) * Math.PI / 180);
+	    		double cy = y1 + radius * Math.sin((start + 360 * ii / sides) * Math.PI / 180);
+	    		if (first) {
+	    			path.moveTo(cx, cy);
+	    		} else {
+	    			path.lineTo(cx, cy);
+	    		}
+	    		first = false;
+	    	}
+	    	path.closePath();
+	    	return path;
+	    } else if (type == PRIM_CIRCLE) {
+	    	// Note: coded to spec (4.5.4.2), but untested
+	    	double aDia = d(parms.get(2));
+	    	double aX = d(parms.get(3));
+	    	double aY = d(parms.get(4));
+	    	double rot = 0;//parms.get(5);  // Rotation pointless for circle, but spec includes it...
+	    	Shape circle = new Ellipse2D.Double(aX - aDia / 2, aY - aDia / 2, aDia, aDia);
+	    	AffineTransform at = new AffineTransform();
+	    	at.translate(x1, y1);
+	    	at.rotate(Math.toRadians(360 - rot));   // Spec says rotation is counterclockwise
+	    	return at.createTransformedShape(circle);
+	    } else if (type == PRIM_CLINE) {
+	    	// Note: tested 11-14-2017 using "BreadboardArduinoZero-30 (U4).osm"
+	    	double aWid = d(parms.get(2));
+	    	double aHyt = d(parms.get(3));
+	    	double aX = d(parms.get(4));
+	    	double aY = d(parms.get(5));
+	    	double rot = parms.get(6);
+	    	Shape cline = new Rectangle2D.Double(aX - aWid / 2, aY - aHyt / 2, aWid, aHyt);
+	    	AffineTransform at = new AffineTransform();
+	    	at.translate(x1, y1);
+	    	at.rotate(Math.toRadians(360 - rot));   // Spec says rotation is counterclockwise
+	    	return at.createTransformedShape(cline);
+	    } else if (type == PRIM_OUTLINE) {
+	      // 	Note: coded to spec (4.5.4.5) , but untested
+	    	int coords = parms.get(2).intValue() + 1; // Includes start point again at end
+	    	Path2D.Double outline = new Path2D.Double();
+	    	for (int ii = 0; ii < coords; ii++) {
+	    		if (ii == 0) {
+	    			outline.moveTo(d(parms.get((ii*2) + 3)), d(parms.get((ii*2) + 4)));
+	    		} else {
+	    			outline.lineTo(d(parms.get((ii*2) + 3)), d(parms.get((ii*2) + 4)));
+	    		}
+	    	}
+	    	double rot = parms.get(5 + (coords - 1) * 2);
+	    	outline.closePath();
+	    	AffineTransform at = new AffineTransform();
+	    	at.translate(x1, y1);
+	    	at.rotate(Math.toRadians(360 - rot));   // Spec says rotation is counterclockwise
+	    	return at.createTransformedShape(outline);
+	    }
+	    return null;
+    }
+
+    /**
+     * Bounds of a flash of this Aperture centered at x1, y1, computed from the bounds of a flash at 0,0
+     */
+    public Rectangle2D getFlashBounds (double x1, double y1) {
+    	Shape shape = getFlashShape();
+    	if (shape == null) {
+    		return new Rectangle2D.Double(x1, y1, 0, 0);
+    	}
+    	Rectangle2D flashBounds = shape.getBounds2D();
+    	return new Rectangle2D.Double(flashBounds.getX() + x1, flashBounds.getY() + y1, flashBounds.getWidth(), flashBounds.getHeight());
+    }
+
+    /**
+     * @return diameter of the hole in a flash of this Aperture in render units, 0 if it has none
+     */
+    public double getHoleDiameter () {
+    	int holeIndex = 0;
+    	if (type == CIRCLE) {
+    		holeIndex = parms.size() > 1 ? 1 : 0;
+    	} else if (type == RECTANGLE || type == OBROUND) {
+    		holeIndex = parms.size() > 2 ? 2 : 0;
+    	} else if (type == POLYGON) {
+    		holeIndex = parms.size() > 3 ? 3 : 0;
+    	}
+    	return holeIndex > 0 ? d(parms.get(holeIndex)) : 0;
+    }
+
+    public Shape createHole (double x1, double y1) {
+    	double diam = getHoleDiameter();
+    	return new Ellipse2D.Double(x1 - diam / 2, y1 - diam / 2, diam, diam);
+    }
+
+    /**
+     * Build the shape of a line drawn with this Aperture.  For a rectangle this is only the swept part without the
+     * rectangles at both ends, they are stored as separate flashes.
+     * Note: the RS-274X spec says that "the solid circle and solid rectangle standard apertures are
+     * the only apertures allowed for creating draw objects", so that's all this code implements.
+     * @return the shape, or null if drawing with this aperture type is not implemented
+     */
+    public Shape createDraw (double x1, double y1, double x2, double y2) {
+    	if (type == CIRCLE) {
+    		double diam = d(parms.get(0));
+    		BasicStroke s1 = new BasicStroke((float) diam, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    		return s1.createStrokedShape(new Line2D.Double(x1, y1, x2, y2));
+    	} else if (type == RECTANGLE) {
+    		double wid = d(parms.get(0));
+    		double hyt = d(parms.get(1));
+    		double diam = Math.sqrt(wid * wid + hyt * hyt);
+    		BasicStroke s1 = new BasicStroke((float) diam, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND);
+    		return s1.createStrokedShape(new Line2D.Double(x1, y1, x2, y2));
+    	}
+    	return null;
+    }
+
+    /**
+     * @return width of the stroke of a line or arc drawn with this Aperture in render units
+     */
+    public double getDrawWidth () {
+    	if (type == RECTANGLE) {
+    		double wid = d(parms.get(0));
+    		double hyt = d(parms.get(1));
+    		return Math.sqrt(wid * wid + hyt * hyt);
+    	}
+    	return d(parms.get(0));
+    }
+
+    /**
+     * Build the shape of an open arc drawn with this Aperture, the parameters are the ones of Arc2D.Double
+     */
+    public Shape createArc (double left, double upper, double width, double height, double start, double extent) {
+        // 	TODO: decide if I should handle case where Aperture is a rectangle (see createDraw())
+    	double diam = d(parms.get(0));
+    	BasicStroke s1 = new BasicStroke((float) diam, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    	return s1.createStrokedShape(new Arc2D.Double(left, upper, width, height, start, extent, Arc2D.OPEN));
+    }
+}
@@ -0,0 +1,100 @@
+package g2c.gerber.contents;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Anti-aliased raster of an aperture flash at a fixed pixel scale, so flashing the same aperture many times is an
+ * image blit instead of a Shape fill.  The flash is rendered once per subpixel phase (PHASES x PHASES offsets inside
+ * a pixel) when the stamp is built, and draw() picks the phase closest to the real position.  The images are never
+ * changed afterwards, so several threads can draw the same stamp.
+ *
+ * Dark flashes are drawn with SrcOver and clear flashes with DstOut, which gives the same result as filling the shape
+ * with the SRC and Clear composites that GerberLoader uses.
+ */
+public class FlashStamp {
+	public static final int     PHASES = 4;         // subpixel positions per pixel and axis
+	private static final int    MAX_SIZE = 128;     // larger flashes are filled as shapes, a blit would not save much
+
+	private final double        scaleX;
+	private final double        scaleY;
+	private final Color         color;
+	private final Shape         shape;              // flash at 0,0 in pixel units
+	private final int           offX;               // pixel offset of the raster relative to the flash center
+	private final int           offY;
+	private final int           width;
+	private final int           height;
+	private final BufferedImage[] images = new BufferedImage[PHASES * PHASES];
+
+	/**
+	 * @param flash shape of the flash at 0,0 in render units
+	 * @param scaleX pixels per render unit in x
+	 * @param scaleY pixels per render unit in y, the image y axis is flipped
+	 */
+	public FlashStamp (Shape flash, double scaleX, double scaleY, Color color) {
+		this.scaleX = scaleX;
+		this.scaleY = scaleY;
+		this.color = color;
+		shape = AffineTransform.getScaleInstance(scaleX, -scaleY).createTransformedShape(flash);
+		Rectangle2D b = shape.getBounds2D();
+		offX = (int) Math.floor(b.getMinX());
+		offY = (int) Math.floor(b.getMinY());
+		// one extra pixel for the largest subpixel shift
+		width = (int) Math.ceil(b.getMaxX()) - offX + 1;
+		height = (int) Math.ceil(b.getMaxY()) - offY + 1;
+		if (isUsable()) {
+			for (int phaseY = 0; phaseY < PHASES; phaseY++) {
+				for (int phaseX = 0; phaseX < PHASES; phaseX++) {
+					images[phaseY * PHASES + phaseX] = render(phaseX, phaseY);
+				}
+			}
+		}
+	}
+
+	public boolean matches (double scaleX, double scaleY, Color color) {
+		return this.scaleX == scaleX && this.scaleY == scaleY && this.color.equals(color);
+	}
+
+	public boolean isUsable () {
+		return width <= MAX_SIZE && height <= MAX_SIZE;
+	}
+
+	/**
+	 * Draws the flash centered at the pixel position px, py.  The caller sets the composite.
+	 */
+	public void draw (Graphics2D g, double px, double py) {
+		double fx = Math.floor(px);
+		double fy = Math.floor(py);
+		int ix = (int) fx;
+		int iy = (int) fy;
+		int phaseX = (int) Math.round((px - fx) * PHASES);
+		int phaseY = (int) Math.round((py - fy) * PHASES);
+		if (phaseX == PHASES) {
+			phaseX = 0;
+			ix++;
+		}
+		if (phaseY == PHASES) {
+			phaseY = 0;
+			iy++;
+		}
+		g.drawImage(images[phaseY * PHASES + phaseX], ix + offX, iy + offY, null);
+	}
+
+	private BufferedImage render (int phaseX, int phaseY) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+		Graphics2D g = img.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setComposite(AlphaComposite.Src);
+		g.setColor(color);
+		g.translate(-offX + (double) phaseX / PHASES, -offY + (double) phaseY / PHASES);
+		g.fill(shape);
+		g.dispose();
+		return img;
+	}
+}
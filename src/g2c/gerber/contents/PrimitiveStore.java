@@ -0,0 +1,174 @@
+package g2c.gerber.contents;
+
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Gerber ordered list of everything that is drawn on a PCB layer, kept in typed primitive arrays instead of one
+ * DrawItem and Shape object per element.  Flashes and draws only store the aperture and their coordinates, the Shape
+ * is built from the Aperture when getShape() is called and is meant to be thrown away after drawing it.  Only
+ * regions and other free form shapes keep a Shape object, in a separate table.
+ *
+ * All coordinates are in render units (see GerberLoader.renderScale).
+ */
+public class PrimitiveStore {
+	// Primitive types
+	public static final byte   FLASH = 0;      // aperture flashed at x1, y1
+	public static final byte   HOLE = 1;       // hole of the aperture flashed at x1, y1
+	public static final byte   LINE = 2;       // aperture drawn from x1, y1 to x2, y2
+	public static final byte   ARC = 3;        // aperture drawn along an arc, x1, y1, x2, y2, a, b are the Arc2D values
+	public static final byte   REGION = 4;     // free form shape (G36/G37 region or filled arc) in the shape table
+
+	private static final int   STRIDE = 6;     // x1, y1, x2, y2, a, b
+
+	private byte[]             types = new byte[1024];
+	private boolean[]          dark = new boolean[1024];
+	private int[]              refs = new int[1024];      // aperture index, or shape index for REGION
+	private double[]           coords = new double[1024 * STRIDE];
+	private int                size = 0;
+
+	private final List<Aperture> apertures = new ArrayList<>();
+	private final List<Shape>    shapes = new ArrayList<>();
+
+	/**
+	 * Adds an Aperture to the aperture table so primitives can refer to it
+	 */
+	public void registerAperture (Aperture app) {
+		app.index = apertures.size();
+		apertures.add(app);
+	}
+
+	public int addFlash (Aperture app, double x, double y, boolean drawCopper) {
+		return add(FLASH, app.index, drawCopper, x, y, 0, 0, 0, 0);
+	}
+
+	public int addHole (Aperture app, double x, double y) {
+		return add(HOLE, app.index, false, x, y, 0, 0, 0, 0);
+	}
+
+	public int addLine (Aperture app, double x1, double y1, double x2, double y2, boolean drawCopper) {
+		return add(LINE, app.index, drawCopper, x1, y1, x2, y2, 0, 0);
+	}
+
+	public int addArc (Aperture app, double left, double upper, double width, double height, double start, double extent, boolean drawCopper) {
+		return add(ARC, app.index, drawCopper, left, upper, width, height, start, extent);
+	}
+
+	public int addRegion (Shape shape, boolean drawCopper) {
+		shapes.add(shape);
+		return add(REGION, shapes.size() - 1, drawCopper, 0, 0, 0, 0, 0, 0);
+	}
+
+	private int add (byte type, int ref, boolean drawCopper, double x1, double y1, double x2, double y2, double a, double b) {
+		if (size == types.length) {
+			int newLength = types.length * 2;
+			types = Arrays.copyOf(types, newLength);
+			dark = Arrays.copyOf(dark, newLength);
+			refs = Arrays.copyOf(refs, newLength);
+			coords = Arrays.copyOf(coords, newLength * STRIDE);
+		}
+		types[size] = type;
+		dark[size] = drawCopper;
+		refs[size] = ref;
+		int c = size * STRIDE;
+		coords[c] = x1;
+		coords[c + 1] = y1;
+		coords[c + 2] = x2;
+		coords[c + 3] = y2;
+		coords[c + 4] = a;
+		coords[c + 5] = b;
+		return size++;
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public byte getType (int i) {
+		return types[i];
+	}
+
+	public boolean isDark (int i) {
+		return dark[i];
+	}
+
+	/**
+	 * @return the aperture the primitive was drawn with, null for regions
+	 */
+	public Aperture getAperture (int i) {
+		return types[i] == REGION ? null : apertures.get(refs[i]);
+	}
+
+	public double getX (int i) {
+		return coords[i * STRIDE];
+	}
+
+	public double getY (int i) {
+		return coords[i * STRIDE + 1];
+	}
+
+	/**
+	 * Builds the Shape of a primitive.  Except for regions this creates a new object on every call.
+	 */
+	public Shape getShape (int i) {
+		int c = i * STRIDE;
+		switch (types[i]) {
+		case FLASH:
+			return apertures.get(refs[i]).createFlash(coords[c], coords[c + 1]);
+		case HOLE:
+			return apertures.get(refs[i]).createHole(coords[c], coords[c + 1]);
+		case LINE:
+			return apertures.get(refs[i]).createDraw(coords[c], coords[c + 1], coords[c + 2], coords[c + 3]);
+		case ARC:
+			return apertures.get(refs[i]).createArc(coords[c], coords[c + 1], coords[c + 2], coords[c + 3], coords[c + 4], coords[c + 5]);
+		case REGION:
+			return shapes.get(refs[i]);
+		}
+		return null;
+	}
+
+	/**
+	 * Bounds of a primitive, flashes use the cached bounds of their aperture so no Shape has to be built
+	 */
+	public Rectangle2D getBounds (int i) {
+		if (types[i] == FLASH) {
+			return apertures.get(refs[i]).getFlashBounds(getX(i), getY(i));
+		}
+		return getShape(i).getBounds2D();
+	}
+
+	/**
+	 * Cheap bounds that contain the whole primitive but may be larger than it, computed without building its Shape
+	 */
+	public Rectangle2D getRenderBounds (int i) {
+		int c = i * STRIDE;
+		switch (types[i]) {
+		case FLASH:
+			return getBounds(i);
+		case HOLE: {
+			double r = apertures.get(refs[i]).getHoleDiameter() / 2;
+			return new Rectangle2D.Double(coords[c] - r, coords[c + 1] - r, r * 2, r * 2);
+		}
+		case LINE: {
+			double r = apertures.get(refs[i]).getDrawWidth() / 2;
+			double x = Math.min(coords[c], coords[c + 2]), y = Math.min(coords[c + 1], coords[c + 3]);
+			return new Rectangle2D.Double(x - r, y - r, Math.abs(coords[c + 2] - coords[c]) + r * 2, Math.abs(coords[c + 3] - coords[c + 1]) + r * 2);
+		}
+		case ARC: {
+			// the whole ellipse of the arc, grown by the stroke
+			double r = apertures.get(refs[i]).getDrawWidth() / 2;
+			return new Rectangle2D.Double(coords[c] - r, coords[c + 1] - r, coords[c + 2] + r * 2, coords[c + 3] + r * 2);
+		}
+		}
+		return getBounds(i);
+	}
+
+	public void clear () {
+		size = 0;
+		apertures.clear();
+		shapes.clear();
+	}
+}
@@ -0,0 +1,48 @@
+package g2c.gerber.loader;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+
+/**
+ * The position correction chosen in an exporter, a rotation around the lower left corner of the board followed by a
+ * move.  It never changes, every exporter builds its own from its settings and passes it to the layers it renders.
+ */
+public final class Correction {
+	private final AffineTransform rotation;   // in render units
+	private final AffineTransform transform;  // rotation and move in render units
+	private final Point2D         offset;     // move in printer screen pixels
+
+	/**
+	 * @param xOffset x offset in mm
+	 * @param yOffset y offset in mm
+	 * @param angle rotation in degrees around the lower left corner of the board
+	 */
+	public Correction(RenderContext context, double xOffset, double yOffset, int angle) {
+		PositionManager positions = context.getPositions();
+		rotation = AffineTransform.getRotateInstance(Math.toRadians(angle), positions.getMinX(), positions.getMinY());
+		transform = AffineTransform.getTranslateInstance(xOffset / 25.4 * GerberLoader.renderScale, yOffset / 25.4 * -GerberLoader.renderScale);
+		transform.concatenate(rotation);
+		offset = new Point2D.Double(xOffset / 25.4 * context.getPrinter().getScreenPPI().getWidth(), yOffset / 25.4 * context.getPrinter().getScreenPPI().getHeight());
+	}
+
+	/**
+	 * @return the correction transform in render units
+	 */
+	public AffineTransform getTransform() {
+		return new AffineTransform(transform);
+	}
+
+	/**
+	 * @return the rotation of the correction in render units
+	 */
+	public AffineTransform getRotation() {
+		return new AffineTransform(rotation);
+	}
+
+	/**
+	 * @return the move of the correction in printer screen pixels, it is applied after the rotation
+	 */
+	public Point2D getOffset() {
+		return (Point2D) offset.clone();
+	}
+}
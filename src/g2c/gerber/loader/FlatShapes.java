@@ -0,0 +1,124 @@
+package g2c.gerber.loader;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * The outlines of a list of primitives, flattened to closed polygons once and kept as plain coordinates.  Filling a
+ * primitive again under another transform then only transforms its points, no Shape is built and no curve is
+ * flattened again.  The points are flattened in a space with the final pixel scale, so any transform that only adds
+ * a rotation, a mirror or a move keeps the curves within the rasterizer's flatness.
+ */
+public class FlatShapes {
+	private static final int DARK = 1;
+	private static final int NON_ZERO = 2;
+
+	/**
+	 * An ordered list of primitives to draw
+	 */
+	public interface PrimitiveSource {
+		int size ();
+		Shape getShape (int i);
+		boolean isDark (int i);
+	}
+
+	private double[]     points = new double[1024];  // x, y of all polygons
+	private int          pointCount;
+	private int[]        paths = new int[256];       // first point of every polygon
+	private int          pathCount;
+	private final int[]  shapes;                     // first polygon of every primitive, and pathCount at the end
+	private final byte[] flags;
+
+	/**
+	 * @param at transform applied before flattening
+	 * @param flatness maximum distance of the polygons from the curves, in units after the transform
+	 */
+	public FlatShapes (PrimitiveSource source, AffineTransform at, double flatness) {
+		int size = source.size();
+		shapes = new int[size + 1];
+		flags = new byte[size];
+		double[] c = new double[6];
+		for (int i = 0; i < size; i++) {
+			shapes[i] = pathCount;
+			PathIterator pi = source.getShape(i).getPathIterator(at, flatness);
+			flags[i] = (byte) ((source.isDark(i) ? DARK : 0) | (pi.getWindingRule() == PathIterator.WIND_NON_ZERO ? NON_ZERO : 0));
+			double startX = 0, startY = 0;
+			boolean closed = true;
+			while (!pi.isDone()) {
+				switch (pi.currentSegment(c)) {
+				case PathIterator.SEG_MOVETO:
+					startX = c[0];
+					startY = c[1];
+					addPath();
+					addPoint(c[0], c[1]);
+					closed = false;
+					break;
+				case PathIterator.SEG_LINETO:
+					// lines after a close continue from the start of the closed polygon
+					if (closed) {
+						addPath();
+						addPoint(startX, startY);
+						closed = false;
+					}
+					addPoint(c[0], c[1]);
+					break;
+				case PathIterator.SEG_CLOSE:
+					closed = true;
+					break;
+				}
+				pi.next();
+			}
+		}
+		shapes[size] = pathCount;
+		addPath();      // end of the last polygon
+		pathCount--;
+	}
+
+	private void addPath () {
+		if (pathCount == paths.length) {
+			paths = Arrays.copyOf(paths, paths.length * 2);
+		}
+		paths[pathCount++] = pointCount;
+	}
+
+	private void addPoint (double x, double y) {
+		if (pointCount * 2 == points.length) {
+			points = Arrays.copyOf(points, points.length * 2);
+		}
+		points[pointCount * 2] = x;
+		points[pointCount * 2 + 1] = y;
+		pointCount++;
+	}
+
+	public int size () {
+		return flags.length;
+	}
+
+	public boolean isDark (int i) {
+		return (flags[i] & DARK) != 0;
+	}
+
+	public boolean isNonZero (int i) {
+		return (flags[i] & NON_ZERO) != 0;
+	}
+
+	/**
+	 * @return index of the first polygon of primitive i, its polygons end at the first one of primitive i + 1
+	 */
+	int getFirstPath (int i) {
+		return shapes[i];
+	}
+
+	/**
+	 * @return index of the first point of polygon p, its points end at the first one of polygon p + 1
+	 */
+	int getFirstPoint (int p) {
+		return paths[p];
+	}
+
+	double[] getPoints () {
+		return points;
+	}
+}
@@ -1,7 +1,7 @@
 package g2c.gerber.loader;
 
-import g2c.application.Main;
 import g2c.gerber.contents.*;
+import g2c.printers.Printer;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -10,9 +10,14 @@ import java.awt.font.GlyphVector;
 import java.awt.font.TextAttribute;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
 import java.util.prefs.Preferences;
@@ -28,10 +33,10 @@ import java.util.prefs.Preferences;
  *
  *  https://www.ucamco.com/en/gerber/downloads
  *
- * Internally, the code first converts the Gerber file into a list of shapes in "drawItems".  Then, if renderMode is
+ * Internally, the code first converts the Gerber file into a list of primitives in "store".  Then, if renderMode is
  * set to DRAW_IMAGE (the default when started), it draws this list of shapes directly to the screen.  However, if
  * renderMode is set to RENDER_FILLED or RENDER_OUTLINE, getBoardArea() is called to compute an Area shape by using
- * the 2D constructive geometry operations add() and subtract().  This converts all the individual shapes in drawItems
+ * the 2D constructive geometry operations add() and subtract().  This converts all the individual shapes in store
  * into a single Shape the contains all the geometry of the PCB design.  Unfortunately, computing this Area becomes
  * exponentially inefficient with larger Gerber files because, as each new shape is added, or subtracted its takes
  * increasinglt more time to calculate all the intersections.  So, a progress bar is displayed to show the progress of
@@ -58,22 +63,9 @@ public class GerberLoader{
   
   private static final double   SCREEN_PPI = Toolkit.getDefaultToolkit().getScreenResolution();
   // Colors used to Render elements of the PCB design
-  private Color    				COPPER = new Color(0xB87333);
+  private static final Color    COVERAGE = Color.white;   // Color the coverage rasters are rendered with
   private static final Color    BOARD = Color.white;
   private static final Color    OUTLINE = Color.black;
-  // Aperture types
-  private static final int      CIRCLE = 1;
-  private static final int      RECTANGLE = 2;
-  private static final int      OBROUND = 3;
-  private static final int      POLYGON = 4;
-  // Aperture Macro Primitive Types
-  private static final int      PRIM_CIRCLE = 10;
-  private static final int      PRIM_VLINE = 11;
-  private static final int      PRIM_CLINE = 12;
-  private static final int      PRIM_OUTLINE = 13;
-  private static final int      PRIM_POLYGON = 14;
-  private static final int      PRIM_MOIRE = 15;
-  private static final int      PRIM_THERMAL = 16;
   // Interpolation modes
   private static final int      LINEAR = 0;
   private static final int      CLOCK = 1;
@@ -87,9 +79,7 @@ public class GerberLoader{
   private static double         defaultViewScale = 4.0;
   private static final int      pixelGap = 4;       // Adds border around displayed image
   // State machine variables
-  private String gerber;
-  private List<String> cmdList;       // List containing all single commands and tokens
-  private int cmdIdx;                 // Current position in cmdList for parser
+  private volatile GerberTokenizer tokens;    // Streams single commands and tokens from the file
   private boolean extCmd;             // True when processing an extended command
   private double curX;                // Current X position
   private double curY;                // Current Y position
@@ -115,16 +105,26 @@ public class GerberLoader{
   // PCB shape and control flags
   private boolean isDark = true;      // True if drawing copper
   private Rectangle.Double bounds;    // Computed bounding box for PCB layer
-  private List<DrawItem> drawItems;   // Gerber ordered List of shapes used to draw PCB
+  private Rectangle2D layerBounds;    // Bounds of all primitives, registered with the context once parsed
+  private volatile boolean loaded = false;
+  private PrimitiveStore store;       // Gerber ordered list of primitives used to draw PCB
   private File ourFile;
-  private BufferedImage img = null;
-  private AffineTransform correctionTransform = null;
+  private Rectangle2D renderBounds;   // Bounds of all primitives including their stroke widths
+  private FlatShapes flatPrimitives;  // Outlines used by the export, built on first use
+  private FlatShapes flatDrills;
+  private double flatDrillSize;
+  private volatile LayerRaster raster = null;  // Coverage rendered by renderRaster(), placed by getScreenOffset()
+  private final RenderContext context;  // Printer and common bounds shared with the other layers
   
   private boolean toolOn = false;
+  private int numberEnd;              // Index after the last number decoded by normalize() or parseCode()
+  
+  private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
 
   	private void resetStateMachine () {
   		bounds = new Rectangle.Double();
-  		drawItems = new ArrayList<>();
+  		layerBounds = null;
+  		store = new PrimitiveStore();
   		macroMap = new HashMap<>();
   		aperturesMap = new HashMap<>();
   		omitLeadZeros = true;
@@ -141,182 +141,312 @@ public class GerberLoader{
   		xFrac = 3;
   		ySgnf = 2;
   		yFrac = 3;
-  		cmdIdx = 0;
   		extCmd = false;
   	}
   	
-  	public GerberLoader(File file) {
+  	public GerberLoader(File file, RenderContext context) {
   		ourFile = file;
+  		this.context = context;
   	}
   	
-  	public BufferedImage renderImage(Color c) {
-  		COPPER = c;
-  		img = getBoardImage(Main.currPrinter.getScreenPPI().getWidth(), Main.currPrinter.getScreenPPI().getHeight(), Main.currPrinter.getScreenResolution().width, Main.currPrinter.getScreenResolution().height);
-  		return img;
-  	}
-  	
-  	public BufferedImage renderImage() {
-  		img = getBoardImage(Main.currPrinter.getScreenPPI().getWidth(), Main.currPrinter.getScreenPPI().getHeight(), Main.currPrinter.getScreenResolution().width, Main.currPrinter.getScreenResolution().height);
-  		return img;
+  	/**
+  	 * Renders the coverage of the layer.  It does not depend on the other layers, so this is only needed once the
+  	 * file was read.
+  	 */
+  	public LayerRaster renderRaster() {
+  		raster = getBoardRaster();
+  		return raster;
   	}
   	
-  	public BufferedImage getImage() {
-  		if(img != null) return img;
-  		img = getBoardImage(Main.currPrinter.getScreenPPI().getWidth(), Main.currPrinter.getScreenPPI().getHeight(), Main.currPrinter.getScreenResolution().width, Main.currPrinter.getScreenResolution().height);
-  		return img;
+  	public LayerRaster getRaster() {
+  		LayerRaster r = raster;
+  		if(r != null) return r;
+  		return renderRaster();
   	}
   	
-	public void applyCorrection(double xOffset, double yOffset, int angle) {
-		correctionTransform = new AffineTransform();
-		correctionTransform.translate(xOffset / 25.4 * renderScale, yOffset / 25.4 * -renderScale);
-		correctionTransform.rotate(Math.toRadians(angle), PositionManager.getMinX(), PositionManager.getMinY());
-	}
-  	
-  	public BufferedImage getCorrectedImage() {
-  		img = getBoardImage(Main.currPrinter.getScreenPPI().getWidth(), Main.currPrinter.getScreenPPI().getHeight(), Main.currPrinter.getScreenResolution().width, Main.currPrinter.getScreenResolution().height, correctionTransform);
-  		return img;
+  	/**
+  	 * @return position of the raster's top left pixel on the printer screen with the current common bounds
+  	 */
+  	public Point getScreenOffset() {
+  		LayerRaster r = getRaster();
+  		Point origin = getScreenOrigin();
+  		return new Point(r.getX() - origin.x, r.getY() - origin.y);
   	}
   	
   	public void setFile(File newFile) {
   		ourFile = newFile;
-  		img = null;
+  		raster = null;
   	}
 
-  	public BufferedImage readFile(){
-  		try {
-  			// Read file and strip out line delimiters
-  			StringBuilder buf = new StringBuilder();
-  			BufferedReader br = new BufferedReader(new FileReader(ourFile));
-  			String line;
-  			while ((line = br.readLine()) != null) {
-  				buf.append(line);
-  			}
-  			br.close();
-  			gerber = buf.toString();
-  			//System.out.println("gerber = " + gerber);
+  	/**
+  	 * Parses the file and registers its bounds with the RenderContext.  Nothing is rendered here, as the image
+  	 * position depends on the bounds of all layers; call renderRaster() once every layer is loaded.  Several
+  	 * loaders may run this concurrently.
+  	 * @return false if the file could not be read
+  	 */
+  	public boolean readFile(){
+  		loaded = false;
+  		// Commands are fed to the state machine straight from the reader, the file is never held in memory as a whole
+  		try (BufferedReader br = new BufferedReader(new FileReader(ourFile))) {
+  			tokens = new GerberTokenizer(br);
+  			parse();
   		} catch (Exception ex) {
   			ex.printStackTrace();
-  			return null;
+  			return false;
+  		} finally {
+  			tokens = null;
   		}
   		
-  		parse();
-  		img = getBoardImage(Main.currPrinter.getScreenPPI().getWidth(), Main.currPrinter.getScreenPPI().getHeight(), Main.currPrinter.getScreenResolution().width, Main.currPrinter.getScreenResolution().height);
-  		return img;
+  		if (layerBounds != null) {
+  			context.getPositions().registerLayer(this, layerBounds);
+  		} else {
+  			context.getPositions().removeLayer(this);
+  		}
+  		renderBounds = null;
+  		for (int i = 0; i < store.size(); i++) {
+  			if (renderBounds == null) {
+  				renderBounds = store.getRenderBounds(i);
+  			} else {
+  				renderBounds.add(store.getRenderBounds(i));
+  			}
+  		}
+  		synchronized (this) {
+  			flatPrimitives = null;
+  			flatDrills = null;
+  		}
+  		raster = null;
+  		loaded = true;
+  		return true;
   	}
   	
-  	private BufferedImage getBoardImage (double ppiX, double ppiY, int width, int height) {
-  		return getBoardImage(ppiX, ppiY, width, height, null);
+  	/**
+  	 * @return fraction of the file parsed by readFile(), from 0 to 1
+  	 */
+  	public double getLoadProgress() {
+  		if (loaded) return 1;
+  		GerberTokenizer t = tokens;
+  		long length = ourFile.length();
+  		if (t == null || length == 0) return 0;
+  		return Math.min(1.0, (double) t.getCharsRead() / length);
   	}
   	
-  	private BufferedImage getBoardImage (double ppiX, double ppiY, int width, int height, AffineTransform at) {
-  		double scaleX = ppiX / renderScale, scaleY = ppiY / renderScale;
+  	/**
+  	 * Removes this layer's bounds from the context, call when the layer is deleted
+  	 */
+  	public void unload() {
+  		context.getPositions().removeLayer(this);
+  	}
+  	
+  	/**
+  	 * Renders the coverage of all primitives into a raster that just covers the layer, at most the size of the
+  	 * printer screen as anything larger could never be shown
+  	 */
+  	private LayerRaster getBoardRaster () {
+  		Printer printer = context.getPrinter();
+  		double scaleX = printer.getScreenPPI().getWidth() / renderScale, scaleY = printer.getScreenPPI().getHeight() / renderScale;
+  		Rectangle2D b = renderBounds != null ? renderBounds : new Rectangle2D.Double();
+  		// grid pixels, one more on every side for the antialiased edges
+  		int x = (int) Math.floor(b.getMinX() * scaleX) - 1;
+  		int y = (int) Math.floor(-b.getMaxY() * scaleY) - 1;
+  		int width = Math.min(printer.getScreenResolution().width, (int) Math.ceil(b.getMaxX() * scaleX) + 1 - x);
+  		int height = Math.min(printer.getScreenResolution().height, (int) Math.ceil(-b.getMinY() * scaleY) + 1 - y);
+  		
+  		AffineTransform scaler = AffineTransform.getTranslateInstance(-x, -y);
+  		scaler.scale(scaleX, -scaleY);
   		BufferedImage bufImg = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-  		Graphics2D offScr = (Graphics2D) bufImg.getGraphics();
-  		offScr.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-		offScr.setColor(COPPER);
-		double minX = PositionManager.getMinX();
-		double minY = PositionManager.getMinY();
-		double heightMax = PositionManager.getHeight();
+  		renderBoard(bufImg, scaleX, scaleY, scaler, null);
+  		
+  		// keep the alpha only
+  		byte[] abgr = ((DataBufferByte) bufImg.getRaster().getDataBuffer()).getData();
+  		WritableRaster coverage = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, 1, null);
+  		byte[] alpha = ((DataBufferByte) coverage.getDataBuffer()).getData();
+  		for (int i = 0; i < alpha.length; i++) {
+  			alpha[i] = abgr[i * 4];
+  		}
+  		return new LayerRaster(coverage, x, y);
+  	}
+  	
+  	/**
+  	 * Draws all primitives into an image
+  	 * @param scaler transform from render units to image pixels
+  	 * @param at transform applied in render units before the scaler, or null
+  	 */
+  	private void renderBoard (BufferedImage bufImg, double scaleX, double scaleY, AffineTransform scaler, AffineTransform at) {
+		AffineTransform toPixels = new AffineTransform(scaler);
+		if (at != null) {
+			toPixels.concatenate(at);
+		}
 		
-		AffineTransform scaler = new AffineTransform();
-		scaler.scale(scaleX, -scaleY);
-		scaler.translate(-minX, -heightMax);
-			
-  		for (DrawItem item : drawItems) {
-  			//Invert Y axis to match Java Graphics's upper-left origin
-  			
-  			Shape shape =  null;
-  			if(at != null) {
-  	  			shape = scaler.createTransformedShape(at.createTransformedShape(item.shape));
-  			}else {
-  	  			shape = scaler.createTransformedShape(item.shape);
+		// Stamps and all their phase images are built up front, the tiles only read them
+		TileRasterizer tiles = new TileRasterizer(bufImg);
+  		for (int i = 0; i < store.size(); i++) {
+  			if (store.getType(i) == PrimitiveStore.FLASH) {
+  				store.getAperture(i).getStamp(scaleX, scaleY, COVERAGE);
   			}
-  			
-  			if(item.drawCopper) {
-  				offScr.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC));
-  			}else {
-  				offScr.setComposite(AlphaComposite.Clear);
+  			tiles.add(i, toPixels.createTransformedShape(store.getRenderBounds(i)).getBounds2D());
+  		}
+  		tiles.render(COVERAGE, (g, i) -> fillPrimitive(g, i, scaleX, scaleY, scaler, at, !store.isDark(i)));
+  	}
+  	
+  	/**
+  	 * Transform from Gerber render units to the pixels of a printer screen image, where getScreenOffset() places the raster
+  	 */
+  	private AffineTransform getScreenTransform () {
+  		Printer printer = context.getPrinter();
+  		Point origin = getScreenOrigin();
+		AffineTransform scaler = AffineTransform.getTranslateInstance(-origin.x, -origin.y);
+		scaler.scale(printer.getScreenPPI().getWidth() / renderScale, -printer.getScreenPPI().getHeight() / renderScale);
+		return scaler;
+  	}
+  	
+  	/**
+  	 * The top left corner of the printer screen on the pixel grid of the rasters, the left and top of the common
+  	 * bounds rounded out to whole pixels, so that every layer sits at an integer offset
+  	 */
+  	private Point getScreenOrigin () {
+  		Printer printer = context.getPrinter();
+  		PositionManager positions = context.getPositions();
+  		double scaleX = printer.getScreenPPI().getWidth() / renderScale, scaleY = printer.getScreenPPI().getHeight() / renderScale;
+  		return new Point((int) Math.floor(positions.getMinX() * scaleX), -(int) Math.ceil(positions.getHeight() * scaleY));
+  	}
+  	
+  	/**
+  	 * Adds the primitives of this layer to a SpanRenderer in drawing order, dark ones cover and clear ones cut out
+  	 * @param toLayer transform from printer screen pixels (as in getScreenOffset()) to the pixels of the renderer
+  	 * @param correction transform applied to the layer in render units, see Correction, or null
+  	 */
+  	public void addTo (SpanRenderer renderer, AffineTransform toLayer, AffineTransform correction) {
+  		renderer.add(getFlatPrimitives(), getFlatTransform(toLayer, correction));
+  	}
+  	
+  	/**
+  	 * Adds the holes of this layer to a SpanRenderer as clear primitives, so they are cut out of the layers added
+  	 * before, see getFlatDrills()
+  	 */
+  	public void addDrillsTo (SpanRenderer renderer, double newHoleSize, AffineTransform toLayer, AffineTransform correction) {
+  		renderer.add(getFlatDrills(newHoleSize), getFlatTransform(toLayer, correction));
+  	}
+  	
+  	/**
+  	 * @return the pixels covered by the layer, or an empty rectangle for a layer without primitives
+  	 * @see #addTo(SpanRenderer, AffineTransform, AffineTransform)
+  	 */
+  	public Rectangle getPixelBounds (AffineTransform toBitmap, AffineTransform correction) {
+  		if (renderBounds == null) return new Rectangle();
+  		AffineTransform at = new AffineTransform(toBitmap);
+  		at.concatenate(getScreenTransform());
+  		if (correction != null) {
+  			at.concatenate(correction);
+  		}
+  		return at.createTransformedShape(renderBounds).getBounds();
+  	}
+  	
+  	/**
+  	 * The outlines of all primitives in drawing order, flattened once at the printer's pixel scale
+  	 */
+  	private synchronized FlatShapes getFlatPrimitives () {
+  		if (flatPrimitives == null) {
+  			flatPrimitives = new FlatShapes(new FlatShapes.PrimitiveSource() {
+  				public int size () { return store.size(); }
+  				public Shape getShape (int i) { return store.getShape(i); }
+  				public boolean isDark (int i) { return store.isDark(i); }
+  			}, getPixelScale(), ScanlineRasterizer.FLATNESS);
+  		}
+  		return flatPrimitives;
+  	}
+  	
+  	/**
+  	 * The holes used to drill guide another layer, all clear.  With newHoleSize > 0 these are circles of that
+  	 * diameter (in inches) at every round pad, else all copper of this (drill) layer.  The outlines of the last hole
+  	 * size are kept.
+  	 */
+  	private synchronized FlatShapes getFlatDrills (double newHoleSize) {
+  		if (flatDrills != null && flatDrillSize == newHoleSize) return flatDrills;
+  		int[] holes = new int[store.size()];
+  		int count = 0;
+  		for (int i = 0; i < store.size(); i++) {
+  			if (!store.isDark(i)) continue;
+  			if (newHoleSize <= 0 || (store.getType(i) == PrimitiveStore.FLASH && store.getAperture(i).type == Aperture.CIRCLE)) {
+  				holes[count++] = i;
   			}
-			offScr.fill(shape);
   		}
-  		offScr.dispose();
-  		return bufImg;
+  		int size = count;
+  		double r = renderScale * newHoleSize;
+  		flatDrills = new FlatShapes(new FlatShapes.PrimitiveSource() {
+  			public int size () { return size; }
+  			public Shape getShape (int i) {
+  				if (newHoleSize > 0) return new Ellipse2D.Double(store.getX(holes[i]) - r, store.getY(holes[i]) - r, r*2, r*2);
+  				return store.getShape(holes[i]);
+  			}
+  			public boolean isDark (int i) { return false; }
+  		}, getPixelScale(), ScanlineRasterizer.FLATNESS);
+  		flatDrillSize = newHoleSize;
+  		return flatDrills;
   	}
   	
-  	public BufferedImage overlayDrills (BufferedImage bufImg, double newHoleSize, double ppiX, double ppiY, int width, int height, boolean applyCorrection) {
-  		double scaleX = ppiX / renderScale, scaleY = ppiY / renderScale;
-  		Graphics2D offScr = (Graphics2D) bufImg.getGraphics();
-  		offScr.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-		offScr.setColor(COPPER);
-		double minX = PositionManager.getMinX();
-		double minY = PositionManager.getMinY();
-		double heightMax = PositionManager.getHeight();
-		
-		AffineTransform scaler = new AffineTransform();
-		scaler.scale(scaleX, -scaleY);
-		scaler.translate(-minX, -heightMax);
-  			
-  		for (DrawItem item : drawItems) {
-      // 	Invert Y axis to match Java Graphics's upper-left origin
-
-  			if(newHoleSize > 0) {
-  				if(item.drawCopper) {
-		  			if(item.shape.getClass() == Ellipse2D.Double.class) {
-		  				Ellipse2D.Double pad = (Ellipse2D.Double) item.shape;
-		  				Rectangle2D frame = pad.getFrame();
-		  				double centerX = frame.getCenterX();
-		  				double centerY = frame.getCenterY();
-		  				double r = renderScale * newHoleSize;
-		  				
-		  				Shape shape;
-		  				if(correctionTransform != null && applyCorrection) {
-			  				shape = scaler.createTransformedShape(correctionTransform.createTransformedShape(new Ellipse2D.Double(centerX - r, centerY - r, r*2, r*2)));
-		  				}else {
-		  					shape = scaler.createTransformedShape(new Ellipse2D.Double(centerX - r, centerY - r, r*2, r*2));
-		  				}
-		  				
-		  	  			offScr.setComposite(AlphaComposite.Clear);
-	  	  				offScr.fill(shape);
-		  			}
+  	/**
+  	 * Render units to pixels, without the placement on the screen
+  	 */
+  	private AffineTransform getPixelScale () {
+  		Printer printer = context.getPrinter();
+  		return AffineTransform.getScaleInstance(printer.getScreenPPI().getWidth() / renderScale, -printer.getScreenPPI().getHeight() / renderScale);
+  	}
+  	
+  	/**
+  	 * Transform from the FlatShapes to bitmap pixels, the corrected screen transform with the pixel scale taken out
+  	 */
+  	private AffineTransform getFlatTransform (AffineTransform toBitmap, AffineTransform correction) {
+  		AffineTransform at = new AffineTransform(toBitmap);
+  		at.concatenate(getScreenTransform());
+  		if (correction != null) {
+  			at.concatenate(correction);
+  		}
+  		try {
+  			at.concatenate(getPixelScale().createInverse());
+  		} catch (NoninvertibleTransformException ex) {
+  			throw new IllegalStateException(ex);
+  		}
+  		return at;
+  	}
+  	
+  	/**
+  	 * Draws one primitive of the store, either as copper or by clearing it.  Flashes are blitted from the aperture's
+  	 * pre-rasterized FlashStamp as long as the correction transform does not rotate, everything else is filled as
+  	 * a Shape.
+  	 */
+  	private void fillPrimitive (Graphics2D offScr, int i, double scaleX, double scaleY, AffineTransform scaler, AffineTransform at, boolean clear) {
+  		if (store.getType(i) == PrimitiveStore.FLASH && (at == null || (at.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0)) {
+  			FlashStamp stamp = store.getAperture(i).getStamp(scaleX, scaleY, COVERAGE);
+  			if (stamp != null) {
+  				Point2D.Double pos = new Point2D.Double(store.getX(i), store.getY(i));
+  				if (at != null) {
+  					at.transform(pos, pos);
   				}
-  			}else {
-  				if(item.drawCopper) {
-	  				Shape shape;
-	  				
-	  				if(correctionTransform != null && applyCorrection) {
-		  				shape = scaler.createTransformedShape(correctionTransform.createTransformedShape(item.shape));
-	  				}else {
-	  					shape = scaler.createTransformedShape(item.shape);
-	  				}
-	  				
-  	  				offScr.setComposite(AlphaComposite.Clear);
-  	  				offScr.fill(shape);
-  	  				//offScr.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC));
-  	  			}
+  				scaler.transform(pos, pos);
+  				offScr.setComposite(clear ? AlphaComposite.DstOut : AlphaComposite.SrcOver);
+  				stamp.draw(offScr, pos.x, pos.y);
+  				return;
   			}
-  			
   		}
-  		offScr.dispose();
-  		return bufImg;
+  		//Invert Y axis to match Java Graphics's upper-left origin
+  		Shape shape;
+  		if (at != null) {
+  			shape = scaler.createTransformedShape(at.createTransformedShape(store.getShape(i)));
+  		} else {
+  			shape = scaler.createTransformedShape(store.getShape(i));
+  		}
+  		offScr.setComposite(clear ? AlphaComposite.Clear : AlphaComposite.getInstance(AlphaComposite.SRC));
+  		offScr.fill(shape);
   	}
-  	
-	private List<DrawItem> parse () {
-		cmdList = new ArrayList<>();
-		StringTokenizer st = new StringTokenizer(gerber, "%*", true);
-		int pos = 0;
-		while (st.hasMoreTokens()) {
-			String token = st.nextToken();
-			if (!token.equals("*")) {
-				cmdList.add(pos++, token);
-			}
-		}
+
+	private PrimitiveStore parse () throws IOException {
 		resetStateMachine();
-		while (cmdIdx < cmdList.size() && !stop) {
-			String cmd = cmdList.get(cmdIdx);
+		String cmd;
+		while ((cmd = tokens.peek()) != null && !stop) {
 			// If we entered or exited an extended command, switch the flag
 			if (cmd.equals("%")) {
 				extCmd = !extCmd;
-				cmdIdx++;
+				tokens.next();
 				continue;
 			}
 			if (extCmd) {
@@ -333,28 +463,32 @@ public class GerberLoader{
 				}
 			}
 		}
-		return drawItems;
+		return store;
 	}
 
   // TODO: can this be improved?
   	private Area getBoardArea() {
   		Area pcb = new Area();
   		int count = 0;
-  		for (DrawItem item : drawItems) {
-  			if (item.drawCopper) {
-  				pcb.add(new Area(item.shape));
+  		for (int i = 0; i < store.size(); i++) {
+  			if (store.isDark(i)) {
+  				pcb.add(new Area(store.getShape(i)));
   			} else {
-  				pcb.subtract(new Area(item.shape));
+  				pcb.subtract(new Area(store.getShape(i)));
   			}
   		}
   		return pcb;
   	}
   	
-  	private void addToBoard (Shape shape, boolean drawCopper) {
-  		PositionManager.registerShape(shape);
-  		bounds.add(shape.getBounds2D());
-  		drawItems.add(new DrawItem(shape, drawCopper));
-		//System.out.println(" add size = " + shape.getBounds2D().getHeight() + " " + shape.getBounds2D().getHeight());
+  	private void addToBoard (int index) {
+  		Rectangle2D shapeBounds = store.getBounds(index);
+  		if (layerBounds == null) {
+  			layerBounds = shapeBounds;
+  		} else {
+  			layerBounds.add(shapeBounds);
+  		}
+  		bounds.add(shapeBounds);
+		//System.out.println(" add size = " + shapeBounds.getHeight() + " " + shapeBounds.getHeight());
   	}
 
   	// Scale X coordinates (to improve Shape precision)
@@ -406,40 +540,89 @@ public class GerberLoader{
   	}
   	
   	/**
-   * Takes a numeric string representing a floating point value with no decimal point and
-   * use the values signif and frac (which represent the number of left side and right side
-   * digits, respectively), to convert input to a double value.  If "omitLeadZeros" is true
-   * then use total of signif and frac vs length of string to figure out how many leading
-   * zeros were omitted.
+   * Decodes the numeric value starting at cmd[start], representing a floating point value with no decimal point,
+   * straight from the characters of the command without creating substrings.  The values signif and frac (which
+   * represent the number of left side and right side digits, respectively) are used to convert it to a double
+   * value.  If "omitLeadZeros" is false then use total of signif and frac vs number of digits to figure out how
+   * many trailing zeros were omitted.  The index of the first character after the number is left in numberEnd.
    * Note: also handles deprecated "omit trailing zero" case when omitLeadZeros == false
-   * @param num numeric string without a decimal point
+   * @param cmd command containing the number
+   * @param start index of the first character of the number (sign or digit)
    * @param signif number of integral (left side) digits expected
    * @param frac number of fractional (right side) digits expected
-   * @return double value for input string
+   * @return double value for the number
    */
-  	private double normalize (String num, int signif, int frac) {
-  		double dVal = Double.parseDouble(num);
+  	private double normalize (String cmd, int start, int signif, int frac) {
+  		int p = start;
+  		int len = cmd.length();
+  		boolean negative = false;
+  		if (p < len && (cmd.charAt(p) == '-' || cmd.charAt(p) == '+')) {
+  			negative = cmd.charAt(p) == '-';
+  			p++;
+  		}
+  		long mantissa = 0;
+  		int digits = 0;
+  		int fracDigits = -1;
+  		for (; p < len; p++) {
+  			char cc = cmd.charAt(p);
+  			if (cc >= '0' && cc <= '9') {
+  				mantissa = mantissa * 10 + (cc - '0');
+  				digits++;
+  				if (fracDigits >= 0) fracDigits++;
+  			} else if (cc == '.' && fracDigits < 0) {
+  				fracDigits = 0;
+  			} else {
+  				break;
+  			}
+  		}
+  		numberEnd = p;
+  		double dVal = fracDigits > 0 ? mantissa / pow10(fracDigits) : mantissa;
+  		if (negative) dVal = -dVal;
   		if (!omitLeadZeros) {
-  			//we need to remove any possible sign characters, to makes sure we don't mistake one for an additional leading zero
-  			num = num.replaceAll("[^\\d.]", "");
-  			dVal *= Math.pow(10, (signif + frac - num.length()));
+  			// sign characters must not be mistaken for an additional leading zero, a decimal point still counts
+  			dVal *= pow10(signif + frac - (digits + (fracDigits >= 0 ? 1 : 0)));
   		}
-  		dVal /= Math.pow(10, frac);
+  		dVal /= pow10(frac);
   		return millimeters ? dVal / 25.4 : dVal;
   	}
+  	
+  	/**
+  	 * Decodes the unsigned integer starting at cmd[start], such as the number of a D or G code, and leaves the
+  	 * index of the first character after it in numberEnd
+  	 */
+  	private int parseCode (String cmd, int start) {
+  		int p = start;
+  		int val = 0;
+  		for (; p < cmd.length(); p++) {
+  			char cc = cmd.charAt(p);
+  			if (cc < '0' || cc > '9') break;
+  			val = val * 10 + (cc - '0');
+  		}
+  		if (p == start) {
+  			throw new NumberFormatException("Expected a number in command: " + cmd);
+  		}
+  		numberEnd = p;
+  		return val;
+  	}
+  	
+  	private static double pow10 (int exp) {
+  		if (exp >= 0 && exp < POW10.length) return POW10[exp];
+  		return Math.pow(10, exp);
+  	}
 
   //
   // Handles an extended RS-274X command. They always start with a 2
   // character specifier, followed by various parameters, sometimes even
   // more commands.
   //
-  	private boolean doExtendedCmd () {
-  		while (cmdIdx < cmdList.size()) {
-  			String cmd = cmdList.get(cmdIdx);
+  	private boolean doExtendedCmd () throws IOException {
+  		String cmd;
+  		while ((cmd = tokens.peek()) != null) {
 		  // 	End of eXtended command, so return true.
   			if (cmd.equals("%")) {
   				return true;
   			}
+  			tokens.next();
 		  // 	Process command and any subcommands
   			switch (cmd.substring(0, 2)) {
   			case "AD":
@@ -481,25 +664,25 @@ public class GerberLoader{
   							int primType = Integer.parseInt(mParms[0]);
   							switch (primType) {
   							case 1:               // Circle Primitive (4.5.4.2)
-  								app = new Aperture(PRIM_CIRCLE);
+  								app = new Aperture(Aperture.PRIM_CIRCLE);
   								break;
   							case 4:               // Outline Primitive  (4.5.4.5)
-  								app = new Aperture(PRIM_OUTLINE);
+  								app = new Aperture(Aperture.PRIM_OUTLINE);
   								break;
   							case 5:               // Polygon Primitive  (4.5.4.6)
-  								app = new Aperture(PRIM_POLYGON);
+  								app = new Aperture(Aperture.PRIM_POLYGON);
   								break;
   							case 6:               // Moire Primitive  (4.5.4.7)
-  								app = new Aperture(PRIM_MOIRE);
+  								app = new Aperture(Aperture.PRIM_MOIRE);
   								break;
   							case 7:               // Thermal Primitive  (4.5.4.8)
-  								app = new Aperture(PRIM_THERMAL);
+  								app = new Aperture(Aperture.PRIM_THERMAL);
   								break;
   							case 20:              // Vector Line Primitive (4.5.4.3)
-  								app = new Aperture(PRIM_VLINE);
+  								app = new Aperture(Aperture.PRIM_VLINE);
   								break;
   							case 21:              // Center Line Primitive (4.5.4.4)
-  								app = new Aperture(PRIM_CLINE);
+  								app = new Aperture(Aperture.PRIM_CLINE);
   								break;
   							}
   							if (app != null) {
@@ -513,6 +696,7 @@ public class GerberLoader{
   									}
   								}
   		  						macroApertures.add(app);
+  		  						store.registerAperture(app);
   							}
   						}
   					}
@@ -521,19 +705,19 @@ public class GerberLoader{
   					// 	Process non-Macro Aperture definition
   					switch (type.charAt(0)) {
   					case 'C':
-  						app = new Aperture(CIRCLE);
+  						app = new Aperture(Aperture.CIRCLE);
   						break;
   					case 'R':
-  						app = new Aperture(RECTANGLE);
+  						app = new Aperture(Aperture.RECTANGLE);
   						break;
   					case 'O':
-  						app = new Aperture(OBROUND);
+  						app = new Aperture(Aperture.OBROUND);
   						break;
   					case 'P':
-  						app = new Aperture(POLYGON);
+  						app = new Aperture(Aperture.POLYGON);
   						break;
   					case 'D':
-  						app = new Aperture(POLYGON);
+  						app = new Aperture(Aperture.POLYGON);
   						break;
   					default:
   						System.out.println("Unknown Aperture type: " + cmd);
@@ -546,6 +730,7 @@ public class GerberLoader{
   						}
   						List<Aperture> macroApertures = new ArrayList<Aperture>();
   						macroApertures.add(app);
+  						store.registerAperture(app);
   						aperturesMap.put(pd, macroApertures);
   					}
   				}
@@ -555,9 +740,8 @@ public class GerberLoader{
   				String name = cmd.substring(2);
   				Macro macro = new Macro();
   				macroMap.put(name, macro);
-  				while (cmdIdx + 1 < cmdList.size() && !cmdList.get(cmdIdx + 1).equals("%")) {
-  					String tmp = cmdList.get(++cmdIdx);
-  					macro.addCmd(tmp);
+  				while (tokens.peek() != null && !tokens.peek().equals("%")) {
+  					macro.addCmd(tokens.next());
   				}
   				break;
   			case "FS":
@@ -594,7 +778,6 @@ public class GerberLoader{
   				System.out.println("Unknown extended command: " + cmd);
   				break;
   			}
-  			cmdIdx++;
   		}
   		return true;
   	}
@@ -603,77 +786,75 @@ public class GerberLoader{
   // 	Handles a old RS command. They always start with only 1 character and
   // 	are much less complex and nested as the eXtended commands.
   //
-  	private boolean doNormalCmd () {
+  	private boolean doNormalCmd () throws IOException {
     // 	Allow reuse of prior coordinates
   		double nx = curX;
   		double ny = curY;
   		
-  		while (cmdIdx < cmdList.size()) {
+  		String cmd;
+  		while ((cmd = tokens.peek()) != null) {
   			boolean coordinatesContained = false;
-  			String cmd = cmdList.get(cmdIdx);
   			//	System.out.println(cmd);
-  			// 	Asterisk denotes end of command
-  			if (cmd.equals("*")) {
-  				return true;
-  			}
   			// 	This check is needed to recover from unanticipated states
   			// 	TODO: investigate further
   			if (cmd.equals("%")) {
   				return true;
   			}
-  			// 	Process subcommands
-  			while (cmd.length() > 0) {
-  				switch (cmd.charAt(0)) {
+  			tokens.next();
+  			// 	Process subcommands, p is the cursor into cmd so no substrings have to be created
+  			int p = 0;
+  			int len = cmd.length();
+  			while (p < len) {
+  				switch (cmd.charAt(p)) {
   				case 'N': {
             // 	Line number (ignored)
-  					int p = numberEndIndex(cmd, 1);
-  					cmd = cmd.substring(p);
+  					p = numberEndIndex(cmd, p + 1);
   				} continue;
   				case 'G':
-  					String code = cmd.substring(1, 3);
-  					cmd = cmd.substring(3);
+  					int code = parseCode(cmd, p + 1);
+  					p = numberEnd;
   					switch (code) {
-  					case "01":      // G01
+  					case 1:      // G01
                 // Switch to linear interpolation with scale 1.0
   						interpol = LINEAR;
   						System.out.println("int is now LINEAR");
   						continue;
-  					case "02":    // G02
+  					case 2:     // G02
                 // 	Switch to clockwise interpolation
   						interpol = CLOCK;
   						System.out.println("int is now CLOCK");
   						continue;
-  					case "03":    // G03
+  					case 3:     // G03
   						// Switch to counter clockwise interpolation
   						interpol = CCLOCK;
   						System.out.println("int is now CCLOCK");
   						continue;
-  					case "04":    // G04 - Comment
-  						cmd = "";
+  					case 4:     // G04 - Comment
+  						p = len;
   						continue;
-  					case "10":    // G10
+  					case 10:    // G10
                 // 	Switch to linear interpolation with scale 10
   						interpol = LINEAR;
   						continue;
-  					case "36":    // G36 - Start new filed area polygon
+  					case 36:    // G36 - Start new filed area polygon
   						inRegion = true;
   						System.out.println("now in region!");
   						path = new Path2D.Double();
   						pathStarted = false;
   						continue;
-  					case "37":    // G37 - End area fill
-  						addToBoard(path, isDark);
+  					case 37:    // G37 - End area fill
+  						addToBoard(store.addRegion(path, isDark));
   						inRegion = false;
   						continue;
-  					case "54":    // G54
-  					case "55":    // G55
+  					case 54:    // G54
+  					case 55:    // G55
                 // 	Select an aperture, Deprecated
   						continue;
-  					case "74":    // G74
+  					case 74:    // G74
                 // 	Switch to single quadrant (no circular interpolation)
   						multi = false;
   						continue;
-  					case "75":    // G75
+  					case 75:    // G75
   						// 	Switch to multi quadrant (circular interpolation)
   						multi = true;
   						continue;
@@ -681,32 +862,27 @@ public class GerberLoader{
   						continue;
   					}
   				case 'X': {                     // Set X position.
-  					int idx = numberEndIndex(cmd, 1);
-  					nx = normalize(cmd.substring(1, idx), xSgnf, xFrac);
-  					cmd = cmd.substring(idx);
+  					nx = normalize(cmd, p + 1, xSgnf, xFrac);
+  					p = numberEnd;
   					coordinatesContained = true;
   				} continue;
   				case 'Y': {                     // Set Y position.
-  					int idx = numberEndIndex(cmd, 1);
-  					ny = normalize(cmd.substring(1, idx), ySgnf, yFrac);
-  					cmd = cmd.substring(idx);
+  					ny = normalize(cmd, p + 1, ySgnf, yFrac);
+  					p = numberEnd;
   					coordinatesContained = true;
   				} continue;
   				case 'I': {                     // Find the relative X center of the circle
-  					int idx = numberEndIndex(cmd, 1);
-  					arcX = normalize(cmd.substring(1, idx), xSgnf, xFrac);
-  					cmd = cmd.substring(idx);
+  					arcX = normalize(cmd, p + 1, xSgnf, xFrac);
+  					p = numberEnd;
   				} continue;
   				case 'J': {                     // Find the relative Y center of the circle
-  					int idx = numberEndIndex(cmd, 1);
-  					arcY = normalize(cmd.substring(1, idx), ySgnf, yFrac);
-  					cmd = cmd.substring(idx);
+  					arcY = normalize(cmd, p + 1, ySgnf, yFrac);
+  					p = numberEnd;
   				} continue;
   				case 'D': {                     // Operation code
   					//System.out.println("  " + cmd);
-  					int idx = numberEndIndex(cmd, 1);
-  					int nd = Integer.parseInt(cmd.substring(1, idx));
-  					cmd = cmd.substring(idx);
+  					int nd = parseCode(cmd, p + 1);
+  					p = numberEnd;
   					if (nd >= 10) { 
   						toolOn = false;              // Select aperturde
   						aperture = aperturesMap.get(nd);
@@ -755,17 +931,16 @@ public class GerberLoader{
   						toolOn = false;
 						for(Aperture app : aperture) {
 	  						flashAperture(app, nx, ny);
-	  			  			System.out.println("flashaperture. type = " + app.type);
 						}
   					}
   				} continue;
   				case 'M':
-  					stop = cmd.startsWith("M00") || cmd.startsWith("M02");
-  					cmd = "";
+  					stop = cmd.startsWith("M00", p) || cmd.startsWith("M02", p);
+  					p = len;
   					continue;
   				default:
-  					System.out.println("Unrecognized command: " + cmd);
-  					cmd = "";
+  					System.out.println("Unrecognized command: " + cmd.substring(p));
+  					p = len;
   				}
   			}
   			if(coordinatesContained) {
@@ -790,7 +965,6 @@ public class GerberLoader{
   			}
   			curX = nx;	
   			curY = ny;
-  			cmdIdx++;
   		}
   		return true;
   	}
@@ -876,17 +1050,13 @@ public class GerberLoader{
 	    double height = dW(2 * radius);
 	    double width  = dH(2 * radius);
 	    if (filled) {
-	    	addToBoard(new Arc2D.Double(left, upper, width, height, start, arc, Arc2D.PIE), isDark);
+	    	addToBoard(store.addRegion(new Arc2D.Double(left, upper, width, height, start, arc, Arc2D.PIE), isDark));
 	    } else {
 	    	if (inRegion) {
 	    		Arc2D.Double curve = new Arc2D.Double(left, upper, width, height, start, -arc, Arc2D.OPEN);
 	    		path.append(curve.getPathIterator(new AffineTransform()), true);
 	    	} else {
-	        // 	TODO: decide if I should handle case where Aperture is a rectangle (see interpolateAperture())
-	    		double diam = dW(app.parms.get(0));
-	    		BasicStroke s1 = new BasicStroke((float) diam, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
-		    	Arc2D.Double a2d = new Arc2D.Double(left, upper, width, height, start, -arc, Arc2D.OPEN);
-	    		addToBoard(s1.createStrokedShape(a2d), isDark);
+	    		addToBoard(store.addArc(app, left, upper, width, height, start, -arc, isDark));
 	    	}
     	}
   	}
@@ -899,80 +1069,9 @@ public class GerberLoader{
 	private void flashAperture (Aperture app, double x1, double y1) {
 		x1 = dX(x1);
 	    y1 = dY(y1);
-	    double wid = dW(app.parms.get(0));
-	    int holeIndex = 0;
-	    if (app.type == CIRCLE) {
-	    	Ellipse2D shape = new Ellipse2D.Double(x1 - wid / 2, y1 - wid / 2, wid, wid);
-	    	addToBoard(shape, isDark);
-	    	holeIndex = app.parms.size() > 1 ? 1 : 0;
-    	} else if (app.type == RECTANGLE) {
-    		double hyt = dH(app.parms.get(1));
-    		addToBoard(new Rectangle2D.Double(x1 - wid / 2, y1 - hyt / 2, wid, hyt), isDark);
-    		holeIndex = app.parms.size() > 2 ? 2 : 0;
-	    } else if (app.type == OBROUND) {
-	    	double hyt = dH(app.parms.get(1));
-	    	double eRadius = Math.min(wid, hyt);
-	    	addToBoard(new RoundRectangle2D.Double(x1 - wid / 2, y1 - hyt / 2, wid, hyt, eRadius, eRadius), isDark);
-	    	holeIndex = app.parms.size() > 2 ? 2 : 0;
-	    } else  if (app.type == POLYGON) {
-	    	double radius = dW(app.parms.get(0) / 2.0);
-	    	double sides = app.parms.get(1);
-	    	double start = app.parms.get(2);
-	    	Path2D.Double path = new Path2D.Double();
-	    	boolean first = true;
-	    	for (int ii = 0; ii < sides; ii++) {
-	    		double cx = x1 + radius * Math.cos((start + 360 * ii / sides) * Math.PI / 180);
-	    		double cy = y1 + radius * Math.sin((start + 360 * ii / sides) * Math.PI / 180);
-	    		if (first) {
-	    			path.moveTo(cx, cy);
-	    		} else {
-	    			path.lineTo(cx, cy);
-	    		}
-	    		first = false;
-	    	}
-	    	path.closePath();
-	    	addToBoard(path, isDark);
-	    	holeIndex = app.parms.size() > 3 ? 3 : 0;
-	    } else if (app.type == PRIM_CIRCLE) {
-	    	// Note: coded to spec (4.5.4.2), but untested
-	    	double aDia = dW(app.parms.get(2));
-	    	double aX = dX(app.parms.get(3));
-	    	double aY = dY(app.parms.get(4));
-	    	double rot = 0;//app.parms.get(5);  // Rotation pointless for circle, but spec includes it...
-	    	Shape circle = new Ellipse2D.Double(aX - aDia / 2, aY - aDia / 2, aDia, aDia);
-	    	AffineTransform at = new AffineTransform();
-	    	at.translate(x1, y1);
-	    	at.rotate(Math.toRadians(360 - rot));   // Spec says rotation is counterclockwise
-	    	addToBoard(at.createTransformedShape(circle), isDark);
-	    } else if (app.type == PRIM_CLINE) {
-	    	// Note: tested 11-14-2017 using "BreadboardArduinoZero-30 (U4).osm"
-	    	double aWid = dW(app.parms.get(2));
-	    	double aHyt = dH(app.parms.get(3));
-	    	double aX = dX(app.parms.get(4));
-	    	double aY = dY(app.parms.get(5));
-	    	double rot = app.parms.get(6);
-	    	Shape cline = new Rectangle2D.Double(aX - aWid / 2, aY - aHyt / 2, aWid, aHyt);
-	    	AffineTransform at = new AffineTransform();
-	    	at.translate(x1, y1);
-	    	at.rotate(Math.toRadians(360 - rot));   // Spec says rotation is counterclockwise
-	    	addToBoard(at.createTransformedShape(cline), isDark);
-	    } else if (app.type == PRIM_OUTLINE) {
-	      // 	Note: coded to spec (4.5.4.5) , but untested
-	    	int coords = app.parms.get(2).intValue() + 1; // Includes start point again at end
-	    	Path2D.Double outline = new Path2D.Double();
-	    	for (int ii = 0; ii < coords; ii++) {
-	    		if (ii == 0) {
-	    			outline.moveTo(dX(app.parms.get((ii*2) + 3)), dY(app.parms.get((ii*2) + 4)));
-	    		} else {
-	    			outline.lineTo(dX(app.parms.get((ii*2) + 3)), dY(app.parms.get((ii*2) + 4)));
-	    		}
-	    	}
-	    	double rot = app.parms.get(5 + (coords - 1) * 2);
-	    	outline.closePath();
-	    	AffineTransform at = new AffineTransform();
-	    	at.translate(x1, y1);
-	    	at.rotate(Math.toRadians(360 - rot));   // Spec says rotation is counterclockwise
-	    	addToBoard(at.createTransformedShape(outline), isDark);
+	    if (app.type == Aperture.CIRCLE || app.type == Aperture.RECTANGLE || app.type == Aperture.OBROUND || app.type == Aperture.POLYGON
+	    		|| app.type == Aperture.PRIM_CIRCLE || app.type == Aperture.PRIM_CLINE || app.type == Aperture.PRIM_OUTLINE) {
+	    	addToBoard(store.addFlash(app, x1, y1, isDark));
 	    } else {
 	    	System.out.println("flashAperture() Aperture type = " + app.type + " not implemented, exposure is " + (isDark ? "DRK" : "CLR"));
 	    	for (double val : app.parms) {
@@ -980,10 +1079,9 @@ public class GerberLoader{
 	    	}
 	    	System.out.println();
 	    }
-	    if (holeIndex > 0) {
+	    if (app.getHoleDiameter() > 0) {
 	      // 	Draw hole in Aperture
-	      double diam = dW(app.parms.get(holeIndex));
-	      addToBoard(new Ellipse2D.Double(x1 - diam / 2, y1 - diam / 2, diam, diam), false);
+	      addToBoard(store.addHole(app, x1, y1));
 	    }
 	}
 
@@ -1001,20 +1099,13 @@ public class GerberLoader{
 		y1 = dY(y1);
 		x2 = dX(x2);
 		y2 = dY(y2);
-		if (app.type == CIRCLE) {
-		  double diam = dW(app.parms.get(0));
-		  BasicStroke s1 = new BasicStroke((float) diam, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
-		  addToBoard(s1.createStrokedShape(new Line2D.Double(x1, y1, x2, y2)), isDark);
-		  addToBoard(s1.createStrokedShape(new Line2D.Double(x1, y1, x2, y2)), isDark);
-		} else if (app.type == RECTANGLE) {
-		  double wid = dW(app.parms.get(0));
-		  double hyt = dH(app.parms.get(1));
-		  double diam = Math.sqrt(wid * wid + hyt * hyt);
-		  BasicStroke s1 = new BasicStroke((float) diam, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND);
-		  addToBoard(s1.createStrokedShape(new Line2D.Double(x1, y1, x2, y2)), isDark);
+		if (app.type == Aperture.CIRCLE) {
+		  addToBoard(store.addLine(app, x1, y1, x2, y2, isDark));
+		} else if (app.type == Aperture.RECTANGLE) {
+		  addToBoard(store.addLine(app, x1, y1, x2, y2, isDark));
 		  // Draw rectangle at start and end points to simulate Gerber's rectangular interpolation
-		  addToBoard(new Rectangle2D.Double(x1 - wid / 2, y1 - hyt / 2, wid, hyt), isDark);
-		  addToBoard(new Rectangle2D.Double(x2 - wid / 2, y2 - hyt / 2, wid, hyt), isDark);
+		  addToBoard(store.addFlash(app, x1, y1, isDark));
+		  addToBoard(store.addFlash(app, x2, y2, isDark));
 		} else {
 		  System.out.println("interpolateAperture() Aperture type = " + app.type + " not implemented, exposure is " + (isDark ? "DRK" : "CLR"));
 		  for (double val : app.parms) {
@@ -0,0 +1,91 @@
+package g2c.gerber.loader;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a Gerber stream into the same tokens the old StringTokenizer(gerber, "%*", true) pass produced, but reads
+ * them on demand from a Reader instead of from a String holding the whole file.  Line delimiters are dropped (the
+ * same as joining all lines), "*" terminators are swallowed and every "%" is returned as its own token, so peak
+ * memory is one read buffer plus the command currently being parsed.
+ */
+public class GerberTokenizer {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Reader reader;
+	private final char[] buf = new char[BUFFER_SIZE];
+	private int bufPos = 0;
+	private int bufLen = 0;
+	private volatile long charsRead = 0;     // read by other threads for progress reporting
+	private final StringBuilder token = new StringBuilder(128);
+	private String peeked = null;
+	private boolean eof = false;
+
+	public GerberTokenizer(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Returns the next token without consuming it, or null at the end of the stream
+	 */
+	public String peek() throws IOException {
+		if (peeked == null) peeked = readToken();
+		return peeked;
+	}
+
+	/**
+	 * Returns and consumes the next token, or null at the end of the stream
+	 */
+	public String next() throws IOException {
+		String ret = peek();
+		peeked = null;
+		return ret;
+	}
+
+	/**
+	 * Number of characters consumed from the underlying reader so far, usable for progress reporting
+	 */
+	public long getCharsRead() {
+		return charsRead;
+	}
+
+	private String readToken() throws IOException {
+		token.setLength(0);
+		while (true) {
+			if (bufPos >= bufLen && !fill()) {
+				return token.length() > 0 ? token.toString() : null;
+			}
+			char c = buf[bufPos++];
+			switch (c) {
+			case '\r':
+			case '\n':
+				break;
+			case '*':
+				if (token.length() > 0) return token.toString();
+				break;
+			case '%':
+				if (token.length() > 0) {
+					// hand out the pending command first and return the "%" on the next call
+					bufPos--;
+					return token.toString();
+				}
+				return "%";
+			default:
+				token.append(c);
+			}
+		}
+	}
+
+	private boolean fill() throws IOException {
+		if (eof) return false;
+		int len = reader.read(buf, 0, buf.length);
+		if (len <= 0) {
+			eof = true;
+			return false;
+		}
+		bufPos = 0;
+		bufLen = len;
+		charsRead += len;
+		return true;
+	}
+}
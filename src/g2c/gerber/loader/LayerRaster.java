@@ -0,0 +1,123 @@
+package g2c.gerber.loader;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Antialiased coverage of one layer, one byte per pixel, independent of the layer's color and of the other layers.
+ * The raster only covers the layer's own bounds and is positioned on a pixel grid anchored at the Gerber origin, so
+ * it is placed on the printer screen by an integer offset and never has to be rendered again when the common bounds
+ * change.  The color is applied when the raster is displayed, through an IndexColorModel that maps the coverage to
+ * the alpha of that color, so recoloring a layer only builds a new 256 entry color table.  Smaller copies of the
+ * coverage, each half the size of the one before, are averaged once when they are first asked for, so a scaled down
+ * view can draw the level closest to its size.
+ */
+public class LayerRaster {
+	private final WritableRaster       coverage;  // 0 is empty and 255 fully covered
+	private final int                  x;         // position of the top left pixel on the grid anchored at the Gerber origin
+	private final int                  y;
+	private final List<WritableRaster> levels = new ArrayList<>();  // halved coverage, levels.get(0) is the coverage
+	private Color                      imageColor;
+	private IndexColorModel            colors;
+	private final List<BufferedImage>  images = new ArrayList<>();  // levels drawn in imageColor
+
+	/**
+	 * @param coverage single band byte raster
+	 * @param x grid position of the raster's left column
+	 * @param y grid position of the raster's top row
+	 */
+	public LayerRaster (WritableRaster coverage, int x, int y) {
+		this.coverage = coverage;
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	 * @return the coverage drawn in the given color, the image shares its data with this raster
+	 */
+	public BufferedImage getImage (Color color) {
+		return getImage(color, 0);
+	}
+	
+	/**
+	 * @param level 0 for the full coverage, every level above halves the width and height
+	 * @return the coverage of the level drawn in the given color, level n covers the layer with 2^n times larger pixels
+	 */
+	public synchronized BufferedImage getImage (Color color, int level) {
+		if (colors == null || !color.equals(imageColor)) {
+			byte[] r = new byte[256], g = new byte[256], b = new byte[256], a = new byte[256];
+			for (int i = 0; i < 256; i++) {
+				r[i] = (byte) color.getRed();
+				g[i] = (byte) color.getGreen();
+				b[i] = (byte) color.getBlue();
+				a[i] = (byte) (i * color.getAlpha() / 255);
+			}
+			colors = new IndexColorModel(8, 256, r, g, b, a);
+			imageColor = color;
+			images.clear();
+		}
+		if (levels.isEmpty()) levels.add(coverage);
+		while (levels.size() <= level) {
+			levels.add(halve(levels.get(levels.size() - 1)));
+		}
+		while (images.size() <= level) {
+			images.add(null);
+		}
+		if (images.get(level) == null) {
+			images.set(level, new BufferedImage(colors, levels.get(level), false, null));
+		}
+		return images.get(level);
+	}
+	
+	/**
+	 * @return the raster at half the size, every pixel the average of the 2x2 pixels it covers that lie inside
+	 */
+	private static WritableRaster halve (WritableRaster source) {
+		int w = source.getWidth(), h = source.getHeight();
+		int hw = (w + 1) / 2, hh = (h + 1) / 2;
+		WritableRaster half = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, hw, hh, 1, null);
+		int[] top = new int[w], bottom = new int[w], row = new int[hw];
+		for (int j = 0; j < hh; j++) {
+			source.getSamples(0, 2 * j, w, 1, 0, top);
+			boolean two = 2 * j + 1 < h;
+			if (two) source.getSamples(0, 2 * j + 1, w, 1, 0, bottom);
+			for (int i = 0; i < hw; i++) {
+				int x0 = 2 * i, x1 = Math.min(w - 1, x0 + 1);
+				int sum = top[x0] + top[x1], count = 2;
+				if (two) {
+					sum += bottom[x0] + bottom[x1];
+					count = 4;
+				}
+				row[i] = (sum + count / 2) / count;
+			}
+			half.setSamples(0, j, hw, 1, 0, row);
+		}
+		return half;
+	}
+	
+	public WritableRaster getCoverage () {
+		return coverage;
+	}
+
+	public int getX () {
+		return x;
+	}
+
+	public int getY () {
+		return y;
+	}
+
+	public int getWidth () {
+		return coverage.getWidth();
+	}
+
+	public int getHeight () {
+		return coverage.getHeight();
+	}
+}
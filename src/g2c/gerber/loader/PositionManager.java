@@ -1,33 +1,80 @@
 package g2c.gerber.loader;
 
 import java.awt.Rectangle;
-import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * Common bounding box of all layers of a RenderContext, used to place every layer at the same offset on the printer
+ * screen.  Layers may be loaded from several threads at once, so all access is synchronized.
+ */
 public class PositionManager {
-	private static Rectangle.Double bounds = new Rectangle.Double();    // Computed bounding box for PCB layer
-	private static double minX = 100000.0, minY = 100000.0;
+	private final Map<Object, Rectangle2D> layers = new LinkedHashMap<>();   // Bounds of every registered layer
+	private Rectangle.Double bounds = new Rectangle.Double();    // Computed bounding box for PCB layer
+	private double minX = 100000.0, minY = 100000.0;
+	private int revision = 0;    // Incremented whenever the bounds change
 	
-	public static void reset() {
+	public synchronized void reset() {
+		layers.clear();
 		bounds = new Rectangle.Double(); 
 		minX = 100000.0; 
 		minY = 100000.0;
+		revision++;
 	}
 	
-	public static void registerShape(Shape shape) {
-		if(shape.getBounds2D().getMinX() < minX) minX = shape.getBounds2D().getMinX();
-		if(shape.getBounds2D().getMinY() < minY) minY = shape.getBounds2D().getMinY();
-		bounds.add(shape.getBounds2D());
+	/**
+	 * Adds the bounds of a layer, registering the same layer again replaces its old bounds
+	 */
+	public synchronized void registerLayer(Object layer, Rectangle2D layerBounds) {
+		if(layers.put(layer, (Rectangle2D) layerBounds.clone()) != null) {
+			recompute();
+			return;
+		}
+		boolean changed = layerBounds.getMinX() < minX || layerBounds.getMinY() < minY || !bounds.contains(layerBounds);
+		add(layerBounds);
+		if(changed) revision++;
 	}
 	
-	public static double getMinX() {
+	/**
+	 * Removes the bounds of a layer, so a deleted layer no longer moves the others
+	 */
+	public synchronized void removeLayer(Object layer) {
+		if(layers.remove(layer) != null) recompute();
+	}
+	
+	private void recompute() {
+		bounds = new Rectangle.Double(); 
+		minX = 100000.0; 
+		minY = 100000.0;
+		for(Rectangle2D b : layers.values()) {
+			add(b);
+		}
+		revision++;
+	}
+	
+	private void add(Rectangle2D b) {
+		if(b.getMinX() < minX) minX = b.getMinX();
+		if(b.getMinY() < minY) minY = b.getMinY();
+		bounds.add(b);
+	}
+	
+	public synchronized double getMinX() {
 		return minX;
 	}
 	
-	public static double getHeight() {
+	public synchronized double getHeight() {
 		return bounds.getHeight();
 	}
 	
-	public static double getMinY() {
+	public synchronized double getMinY() {
 		return minY;
 	}
+	
+	/**
+	 * @return a number that changes whenever the bounds change
+	 */
+	public synchronized int getRevision() {
+		return revision;
+	}
 }
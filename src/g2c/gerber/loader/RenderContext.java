@@ -0,0 +1,25 @@
+package g2c.gerber.loader;
+
+import g2c.printers.Printer;
+
+/**
+ * Everything the layers of one board share when they are rendered: the printer they are rendered for and the common
+ * bounds that place them on the screen.  Each board gets its own context, so several boards can be converted at the
+ * same time.  The position correction of an export is not shared, see Correction.
+ */
+public class RenderContext {
+	private final Printer printer;
+	private final PositionManager positions = new PositionManager();
+
+	public RenderContext(Printer printer) {
+		this.printer = printer;
+	}
+
+	public Printer getPrinter() {
+		return printer;
+	}
+
+	public PositionManager getPositions() {
+		return positions;
+	}
+}
@@ -0,0 +1,232 @@
+package g2c.gerber.loader;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+import photon.file.parts.PhotonBitmap;
+
+/**
+ * Fills shapes straight into a one bit PhotonBitmap, or any other SpanSink, without going through Java2D.  Curves are
+ * flattened to line edges, and every row is filled between the edge crossings at the row's pixel center, following
+ * the even-odd or non-zero winding rule of the shape.  A pixel is set if its center lies inside the shape, so there is
+ * no antialiasing and no growth of the copper by partly covered pixels.
+ */
+public class ScanlineRasterizer {
+	static final double         FLATNESS = 0.05;     // maximum distance of flattened curves from the real one, in pixels
+
+	public interface SpanSink {
+		/**
+		 * Receives the pixels from (inclusive) to to (exclusive) of a row covered by a shape, clipped to the raster
+		 */
+		void span (int row, int from, int to, boolean dark);
+	}
+
+	private final int          width;
+	private final int          height;
+	private final SpanSink     sink;
+	// Edges of the shape being filled, top y, bottom y, x at top and dx/dy, with the winding direction
+	private double[]           edges = new double[256 * 4];
+	private int[]              dirs = new int[256];
+	private int                edgeCount;
+	// Edges crossing the current row
+	private int[]              active = new int[64];
+	private double[]           crossX = new double[64];
+	private int[]              crossDir = new int[64];
+	private long[]             order = new long[256];    // first row of an edge in the high, its index in the low int
+	private double             minY;                     // vertical extent of the edges
+	private double             maxY;
+	private final double[]     matrix = new double[6];
+
+	public ScanlineRasterizer(PhotonBitmap bitmap) {
+		this(bitmap.getWidth(), bitmap.getHeight(), (row, from, to, dark) -> {
+			if (dark) {
+				bitmap.setSpan(row, from, to);
+			} else {
+				bitmap.clearSpan(row, from, to);
+			}
+		});
+	}
+
+	/**
+	 * @param width length of a row in pixels
+	 * @param height number of rows
+	 * @param sink receives the filled spans row by row
+	 */
+	public ScanlineRasterizer(int width, int height, SpanSink sink) {
+		this.width = width;
+		this.height = height;
+		this.sink = sink;
+	}
+
+	/**
+	 * Fills a shape into the bitmap
+	 * @param shape the shape to fill
+	 * @param at transform from shape coordinates to bitmap pixels, x along a row and y the row
+	 * @param dark true to set the covered pixels, false to clear them
+	 */
+	public void fill(Shape shape, AffineTransform at, boolean dark) {
+		PathIterator pi = shape.getPathIterator(at, FLATNESS);
+		boolean nonZero = pi.getWindingRule() == PathIterator.WIND_NON_ZERO;
+		edgeCount = 0;
+		double[] c = new double[6];
+		double startX = 0, startY = 0, curX = 0, curY = 0;
+		minY = Double.MAX_VALUE;
+		maxY = -Double.MAX_VALUE;
+		while (!pi.isDone()) {
+			switch (pi.currentSegment(c)) {
+			case PathIterator.SEG_MOVETO:
+				addEdge(curX, curY, startX, startY);
+				startX = curX = c[0];
+				startY = curY = c[1];
+				break;
+			case PathIterator.SEG_LINETO:
+				addEdge(curX, curY, c[0], c[1]);
+				curX = c[0];
+				curY = c[1];
+				break;
+			case PathIterator.SEG_CLOSE:
+				addEdge(curX, curY, startX, startY);
+				curX = startX;
+				curY = startY;
+				break;
+			}
+			pi.next();
+		}
+		addEdge(curX, curY, startX, startY);
+		scan(nonZero, dark);
+	}
+
+	/**
+	 * Fills a pre-flattened primitive
+	 * @param at transform from the coordinates of the FlatShapes to bitmap pixels
+	 */
+	public void fill(FlatShapes shapes, int i, AffineTransform at) {
+		at.getMatrix(matrix);
+		double m00 = matrix[0], m10 = matrix[1], m01 = matrix[2], m11 = matrix[3], m02 = matrix[4], m12 = matrix[5];
+		double[] pts = shapes.getPoints();
+		edgeCount = 0;
+		minY = Double.MAX_VALUE;
+		maxY = -Double.MAX_VALUE;
+		for (int p = shapes.getFirstPath(i), end = shapes.getFirstPath(i + 1); p < end; p++) {
+			int first = shapes.getFirstPoint(p), last = shapes.getFirstPoint(p + 1) - 1;
+			double prevX = pts[last * 2] * m00 + pts[last * 2 + 1] * m01 + m02;
+			double prevY = pts[last * 2] * m10 + pts[last * 2 + 1] * m11 + m12;
+			for (int k = first; k <= last; k++) {
+				double x = pts[k * 2] * m00 + pts[k * 2 + 1] * m01 + m02;
+				double y = pts[k * 2] * m10 + pts[k * 2 + 1] * m11 + m12;
+				addEdge(prevX, prevY, x, y);
+				prevX = x;
+				prevY = y;
+			}
+		}
+		scan(shapes.isNonZero(i), shapes.isDark(i));
+	}
+
+	/**
+	 * Fills the edges collected by addEdge()
+	 */
+	private void scan(boolean nonZero, boolean dark) {
+		if (edgeCount == 0) return;
+
+		// rows whose center lies between minY and maxY
+		int row0 = Math.max(0, (int) Math.ceil(minY - 0.5));
+		int row1 = Math.min(height - 1, (int) Math.ceil(maxY - 0.5) - 1);
+		if (row0 > row1) return;
+		sortEdges();
+		int next = 0, activeCount = 0;
+		for (int row = row0; row <= row1; row++) {
+			double cy = row + 0.5;
+			// drop edges that ended above this row and add the ones starting
+			int kept = 0;
+			for (int i = 0; i < activeCount; i++) {
+				if (edges[active[i] * 4 + 1] > cy) active[kept++] = active[i];
+			}
+			activeCount = kept;
+			while (next < edgeCount && (int) (order[next] >> 32) <= row) {
+				int e = (int) order[next++];
+				if (edges[e * 4 + 1] > cy) {
+					if (activeCount == active.length) grow();
+					active[activeCount++] = e;
+				}
+			}
+			if (activeCount == 0) continue;
+
+			// crossings at the pixel center, insertion sorted by x
+			for (int i = 0; i < activeCount; i++) {
+				int e = active[i];
+				double x = edges[e * 4 + 2] + (cy - edges[e * 4]) * edges[e * 4 + 3];
+				int dir = dirs[e];
+				int j = i;
+				while (j > 0 && crossX[j - 1] > x) {
+					crossX[j] = crossX[j - 1];
+					crossDir[j] = crossDir[j - 1];
+					j--;
+				}
+				crossX[j] = x;
+				crossDir[j] = dir;
+			}
+			int winding = 0;
+			for (int i = 0; i < activeCount - 1; i++) {
+				winding += nonZero ? crossDir[i] : 1;
+				boolean inside = nonZero ? winding != 0 : (winding & 1) != 0;
+				if (inside) {
+					span(row, crossX[i], crossX[i + 1], dark);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills the pixels of a row whose centers are between x0 and x1
+	 */
+	private void span(int row, double x0, double x1, boolean dark) {
+		int from = Math.max(0, (int) Math.ceil(x0 - 0.5));
+		int to = Math.min(width, (int) Math.ceil(x1 - 0.5));
+		if (from >= to) return;
+		sink.span(row, from, to, dark);
+	}
+
+	private void addEdge(double x0, double y0, double x1, double y1) {
+		if (y0 == y1) return;
+		minY = Math.min(minY, Math.min(y0, y1));
+		maxY = Math.max(maxY, Math.max(y0, y1));
+		int dir = 1;
+		if (y0 > y1) {
+			double t = x0; x0 = x1; x1 = t;
+			t = y0; y0 = y1; y1 = t;
+			dir = -1;
+		}
+		if (edgeCount == dirs.length) {
+			edges = Arrays.copyOf(edges, edges.length * 2);
+			dirs = Arrays.copyOf(dirs, dirs.length * 2);
+		}
+		int e = edgeCount * 4;
+		edges[e] = y0;
+		edges[e + 1] = y1;
+		edges[e + 2] = x0;
+		edges[e + 3] = (x1 - x0) / (y1 - y0);
+		dirs[edgeCount++] = dir;
+	}
+
+	/**
+	 * Sorts the edges in "order" by the first row whose center is below their top
+	 */
+	private void sortEdges() {
+		if (order.length < edgeCount) order = new long[dirs.length];
+		for (int i = 0; i < edgeCount; i++) {
+			double firstRow = Math.ceil(edges[i * 4] - 0.5);
+			long row = (long) Math.max(-1, Math.min(height, firstRow));
+			order[i] = (row << 32) | i;
+		}
+		Arrays.sort(order, 0, edgeCount);
+	}
+
+	private void grow() {
+		int n = active.length * 2;
+		active = Arrays.copyOf(active, n);
+		crossX = Arrays.copyOf(crossX, n);
+		crossDir = Arrays.copyOf(crossDir, n);
+	}
+}
@@ -0,0 +1,176 @@
+package g2c.gerber.loader;
+
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+import photon.file.parts.PhotonRleEncoder;
+
+/**
+ * Renders primitives straight to Photon RLE data, without a full size image or bitmap.  Every primitive is filled once
+ * with the ScanlineRasterizer from its FlatShapes outline, and the covered spans of each row are merged into a sorted span list of that row in
+ * drawing order, dark spans are added and clear spans cut out.  The finished rows go to a PhotonRleEncoder, so the
+ * work and memory grow with the number of edges and spans instead of the number of pixels.  The rows can be moved by
+ * whole pixels while they are encoded, so a layer that is only moved does not have to be rendered again.
+ */
+public class SpanRenderer {
+	private final int                width;
+	private final int                height;
+	private final ScanlineRasterizer raster;
+	// Span lists of all rows, sorted start and end pairs
+	private final int[][]            rows;
+	private final int[]              rowSizes;
+
+	/**
+	 * @param width length of a row in pixels
+	 * @param height number of rows
+	 */
+	public SpanRenderer (int width, int height) {
+		this.width = width;
+		this.height = height;
+		raster = new ScanlineRasterizer(width, height, this::span);
+		rows = new int[height][];
+		rowSizes = new int[height];
+	}
+
+	/**
+	 * Draws all primitives over the ones added before
+	 * @param at transform from the units of the shapes to pixels, x along a row and y the row
+	 */
+	public void add (FlatShapes shapes, AffineTransform at) {
+		for (int i = 0; i < shapes.size(); i++) {
+			raster.fill(shapes, i, at);
+		}
+	}
+
+	/**
+	 * Passes all rows to the encoder
+	 * @param invert true if the pixels outside the primitives are exposed
+	 */
+	public void encode (PhotonRleEncoder encoder, boolean invert) {
+		encode(encoder, invert, height, 0, 0);
+	}
+
+	/**
+	 * Passes the rows to the encoder moved by whole pixels, spans moved outside the encoder's width are cut off
+	 * @param count number of rows to encode
+	 * @param shiftX pixels the spans are moved along the rows
+	 * @param shiftY rows the rows are moved down, encoded row r is row r - shiftY of this renderer
+	 */
+	public void encode (PhotonRleEncoder encoder, boolean invert, int count, int shiftX, int shiftY) {
+		int[] spans = new int[16];
+		for (int r = 0; r < count; r++) {
+			int row = r - shiftY;
+			int n = 0;
+			if (row >= 0 && row < height && rows[row] != null) {
+				int[] s = rows[row];
+				if (spans.length < rowSizes[row]) {
+					spans = new int[rowSizes[row]];
+				}
+				for (int i = 0; i < rowSizes[row]; i += 2) {
+					int from = Math.max(0, s[i] + shiftX);
+					int to = Math.min(encoder.getWidth(), s[i + 1] + shiftX);
+					if (from < to) {
+						spans[n++] = from;
+						spans[n++] = to;
+					}
+				}
+			}
+			encoder.addRow(spans, n, invert);
+		}
+	}
+
+	public int getWidth () {
+		return width;
+	}
+
+	public int getHeight () {
+		return height;
+	}
+
+	private void span (int row, int from, int to, boolean dark) {
+		if (dark) {
+			add(row, from, to);
+		} else if (rows[row] != null) {
+			cut(row, from, to);
+		}
+	}
+
+	/**
+	 * Adds from..to to the span list of a row, merging the spans it overlaps or touches
+	 */
+	private void add (int r, int from, int to) {
+		if (rows[r] == null) rows[r] = new int[8];
+		int[] s = rows[r];
+		int n = rowSizes[r] / 2;
+		int lo = firstEndingAtOrAfter(s, n, from);
+		int hi = lo;
+		while (hi < n && s[hi * 2] <= to) hi++;
+		// spans lo..hi-1 are merged with the new one
+		if (lo < hi) {
+			from = Math.min(from, s[lo * 2]);
+			to = Math.max(to, s[hi * 2 - 1]);
+		}
+		replace(r, lo, hi, from, to, 0, 0, 1);
+	}
+
+	/**
+	 * Removes from..to from the span list of a row, splitting a span that contains it
+	 */
+	private void cut (int r, int from, int to) {
+		int[] s = rows[r];
+		int n = rowSizes[r] / 2;
+		int lo = firstEndingAtOrAfter(s, n, from + 1);
+		int hi = lo;
+		while (hi < n && s[hi * 2] < to) hi++;
+		if (lo == hi) return;
+		int leftStart = s[lo * 2], rightEnd = s[hi * 2 - 1];
+		boolean left = leftStart < from, right = rightEnd > to;
+		if (left && right) {
+			replace(r, lo, hi, leftStart, from, to, rightEnd, 2);
+		} else if (left) {
+			replace(r, lo, hi, leftStart, from, 0, 0, 1);
+		} else if (right) {
+			replace(r, lo, hi, to, rightEnd, 0, 0, 1);
+		} else {
+			replace(r, lo, hi, 0, 0, 0, 0, 0);
+		}
+	}
+
+	/**
+	 * @return index of the first span whose end is at or after x, or n
+	 */
+	private static int firstEndingAtOrAfter (int[] s, int n, int x) {
+		int lo = 0, hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (s[mid * 2 + 1] < x) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Replaces spans lo..hi-1 of a row with "count" new spans (0 to 2)
+	 */
+	private void replace (int r, int lo, int hi, int s0, int e0, int s1, int e1, int count) {
+		int size = rowSizes[r];
+		int newSize = size + (count - (hi - lo)) * 2;
+		if (newSize > rows[r].length) {
+			rows[r] = Arrays.copyOf(rows[r], Math.max(newSize, rows[r].length * 2));
+		}
+		int[] s = rows[r];
+		System.arraycopy(s, hi * 2, s, (lo + count) * 2, size - hi * 2);
+		if (count > 0) {
+			s[lo * 2] = s0;
+			s[lo * 2 + 1] = e0;
+		}
+		if (count > 1) {
+			s[lo * 2 + 2] = s1;
+			s[lo * 2 + 3] = e1;
+		}
+		rowSizes[r] = newSize;
+	}
+}
@@ -0,0 +1,92 @@
+package g2c.gerber.loader;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Renders primitives into an image split into square tiles, one Graphics2D per tile and the tiles in parallel on the
+ * ForkJoin common pool.  Primitives are bucketed into every tile their pixel bounds touch, in the order they were
+ * added, so clear polarity primitives still only erase what was drawn before them.  Every tile draws through a clip
+ * of its own area of the shared raster, so tiles never touch each others pixels.  The result matches drawing with a
+ * single Graphics2D, except that the antialiased edges of curves can differ by a few levels because Java2D flattens
+ * clipped curves slightly differently.
+ */
+public class TileRasterizer {
+	public static final int TILE_SIZE = 256;
+
+	public interface PrimitivePainter {
+		/**
+		 * Draws primitive "index" to the Graphics2D of a tile, which is clipped and translated to the tile
+		 */
+		void paint (Graphics2D g, int index);
+	}
+
+	private final BufferedImage image;
+	private final int           tilesX;
+	private final int           tilesY;
+	private final int[][]       buckets;        // primitive indices per tile, in drawing order
+	private final int[]         bucketSizes;
+
+	public TileRasterizer (BufferedImage image) {
+		this.image = image;
+		tilesX = (image.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+		tilesY = (image.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+		buckets = new int[tilesX * tilesY][];
+		bucketSizes = new int[tilesX * tilesY];
+	}
+
+	/**
+	 * Adds a primitive to every tile its bounds touch.  The bounds are in pixels and grown by one pixel to cover
+	 * antialiased edges, primitives have to be added in drawing order.
+	 */
+	public void add (int index, Rectangle2D bounds) {
+		int x0 = Math.max(0, (int) Math.floor(bounds.getMinX()) - 1) / TILE_SIZE;
+		int y0 = Math.max(0, (int) Math.floor(bounds.getMinY()) - 1) / TILE_SIZE;
+		int x1 = Math.min(image.getWidth() - 1, (int) Math.ceil(bounds.getMaxX()) + 1);
+		int y1 = Math.min(image.getHeight() - 1, (int) Math.ceil(bounds.getMaxY()) + 1);
+		if (x1 < 0 || y1 < 0) return;
+		x1 /= TILE_SIZE;
+		y1 /= TILE_SIZE;
+		for (int ty = y0; ty <= y1; ty++) {
+			for (int tx = x0; tx <= x1; tx++) {
+				int t = ty * tilesX + tx;
+				int[] bucket = buckets[t];
+				if (bucket == null) {
+					bucket = buckets[t] = new int[64];
+				} else if (bucketSizes[t] == bucket.length) {
+					bucket = buckets[t] = Arrays.copyOf(bucket, bucket.length * 2);
+				}
+				bucket[bucketSizes[t]++] = index;
+			}
+		}
+	}
+
+	/**
+	 * Draws all tiles in parallel with antialiasing on and the given color set, and waits until they are done
+	 */
+	public void render (Color color, PrimitivePainter painter) {
+		IntStream.range(0, buckets.length).parallel().forEach(t -> renderTile(t, color, painter));
+	}
+
+	private void renderTile (int t, Color color, PrimitivePainter painter) {
+		int[] bucket = buckets[t];
+		if (bucket == null) return;
+		int x = (t % tilesX) * TILE_SIZE;
+		int y = (t / tilesX) * TILE_SIZE;
+		int w = Math.min(TILE_SIZE, image.getWidth() - x);
+		int h = Math.min(TILE_SIZE, image.getHeight() - y);
+		Graphics2D g = image.getSubimage(x, y, w, h).createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(color);
+		g.translate(-x, -y);
+		for (int i = 0, n = bucketSizes[t]; i < n; i++) {
+			painter.paint(g, bucket[i]);
+		}
+		g.dispose();
+	}
+}
@@ -0,0 +1,109 @@
+package g2c.preview;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+/**
+ * Scales an image of the printer screen down to a preview size with an area average box filter.  Every screen pixel
+ * is split over the one or two thumbnail pixels it overlaps in each direction, weighted by the overlap, so the result
+ * is the exact average of the screen area behind each thumbnail pixel.  The screen keeps its aspect ratio and is
+ * centered on a black thumbnail, and pixels are composited on black by their alpha.
+ */
+public class Thumbnail {
+	/**
+	 * @param image part of the screen, everything outside it is black
+	 * @param x screen position of the image's left column
+	 * @param y screen position of the image's top row
+	 * @param screen size of the whole screen in pixels
+	 * @param size size of the thumbnail
+	 * @param mirror true to mirror the screen left to right
+	 */
+	public static BufferedImage render(BufferedImage image, int x, int y, Dimension screen, Dimension size, boolean mirror) {
+		int sw = screen.width, sh = screen.height;
+		double scale = Math.min((double) size.width / sw, (double) size.height / sh);
+		// the thumbnail pixels covered by the screen
+		int cw = Math.max(1, Math.min(size.width, (int) Math.round(sw * scale)));
+		int ch = Math.max(1, Math.min(size.height, (int) Math.round(sh * scale)));
+		
+		// in units where a screen pixel is cw (ch) wide and a thumbnail pixel sw (sh), screen pixel i covers i*cw..(i+1)*cw
+		int[] colFirst = new int[image.getWidth()], colWeight = new int[image.getWidth()];
+		for(int i = 0; i < colFirst.length; i++) {
+			int sx = mirror ? sw - 1 - (x + i) : x + i;
+			if(sx < 0 || sx >= sw) {
+				colFirst[i] = -1;
+			} else {
+				split(sx, cw, sw, colFirst, colWeight, i);
+			}
+		}
+		
+		long[] acc = new long[cw * ch * 3];
+		int[] row = new int[image.getWidth()];
+		int[] rowFirst = new int[1], rowWeight = new int[1];
+		// indexed images, like the layer rasters, are read as indices and looked up
+		int[] colors = null;
+		if(image.getColorModel() instanceof IndexColorModel) {
+			IndexColorModel icm = (IndexColorModel) image.getColorModel();
+			colors = new int[icm.getMapSize()];
+			icm.getRGBs(colors);
+		}
+		for(int j = 0; j < image.getHeight(); j++) {
+			int sy = y + j;
+			if(sy < 0 || sy >= sh) continue;
+			split(sy, ch, sh, rowFirst, rowWeight, 0);
+			if(colors != null) {
+				image.getRaster().getSamples(0, j, row.length, 1, 0, row);
+				for(int i = 0; i < row.length; i++) {
+					row[i] = colors[row[i]];
+				}
+			} else {
+				image.getRGB(0, j, row.length, 1, row, 0, row.length);
+			}
+			for(int i = 0; i < row.length; i++) {
+				int c = row[i];
+				if((c >>> 24) == 0 || (c & 0xffffff) == 0 || colFirst[i] < 0) continue;
+				int a = c >>> 24;
+				long r = ((c >> 16) & 0xff) * a, g = ((c >> 8) & 0xff) * a, b = (c & 0xff) * a;
+				int tx = colFirst[i], ty = rowFirst[0];
+				int wx = colWeight[i], wy = rowWeight[0];
+				add(acc, cw, tx, ty, (long) wx * wy, r, g, b);
+				if(wx < cw) add(acc, cw, tx + 1, ty, (long) (cw - wx) * wy, r, g, b);
+				if(wy < ch) {
+					add(acc, cw, tx, ty + 1, (long) wx * (ch - wy), r, g, b);
+					if(wx < cw) add(acc, cw, tx + 1, ty + 1, (long) (cw - wx) * (ch - wy), r, g, b);
+				}
+			}
+		}
+		
+		BufferedImage thumbnail = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+		int ox = (size.width - cw) / 2, oy = (size.height - ch) / 2;
+		long area = (long) sw * sh * 255;
+		int[] out = new int[cw];
+		for(int ty = 0; ty < ch; ty++) {
+			for(int tx = 0; tx < cw; tx++) {
+				int k = (ty * cw + tx) * 3;
+				int r = (int) ((acc[k] + area / 2) / area), g = (int) ((acc[k + 1] + area / 2) / area), b = (int) ((acc[k + 2] + area / 2) / area);
+				out[tx] = r << 16 | g << 8 | b;
+			}
+			thumbnail.setRGB(ox, oy + ty, cw, 1, out, 0, cw);
+		}
+		return thumbnail;
+	}
+	
+	/**
+	 * Finds the first thumbnail pixel that screen pixel s overlaps and the overlap, the rest lies in the next one
+	 */
+	private static void split(int s, int thumbSize, int screenSize, int[] first, int[] weight, int i) {
+		long from = (long) s * thumbSize;
+		int t = (int) (from / screenSize);
+		first[i] = t;
+		weight[i] = (int) Math.min(thumbSize, (long) (t + 1) * screenSize - from);
+	}
+	
+	private static void add(long[] acc, int cw, int tx, int ty, long w, long r, long g, long b) {
+		int k = (ty * cw + tx) * 3;
+		acc[k] += w * r;
+		acc[k + 1] += w * g;
+		acc[k + 2] += w * b;
+	}
+}
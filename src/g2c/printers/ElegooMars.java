@@ -51,6 +51,16 @@ public class ElegooMars implements Printer {
 		return 150.0;
 	}
 
+	@Override
+	public Dimension getPreviewSize() {
+		return new Dimension(400, 300);
+	}
+
+	@Override
+	public Dimension getSmallPreviewSize() {
+		return new Dimension(200, 125);
+	}
+
 	@Override
 	public String getName() {
 		return "Elegoo Mars";
@@ -12,4 +12,13 @@ public interface Printer {
 	Dimension getScreenPPI();
 	Dimension getBezelMargin();
 	String getName();;
+	
+	/**
+	 * @return size of the large preview stored in the print file
+	 */
+	Dimension getPreviewSize();
+	/**
+	 * @return size of the small preview stored in the print file
+	 */
+	Dimension getSmallPreviewSize();
 }
@@ -29,8 +29,19 @@ import photon.file.parts.photon.PhotonFileHeader;
 import photon.file.parts.photons.PhotonsFileHeader;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 import g2c.printers.Printer;
 
@@ -42,6 +53,7 @@ public class PhotonFile {
     private PhotonFilePreview previewOne;
     private PhotonFilePreview previewTwo;
     private List<PhotonFileLayer> layers;
+    private File mappedFile;    // file the layers were mapped from by mapFile()
 
     private StringBuilder islandList;
     private int islandLayerCount;
@@ -74,7 +86,29 @@ public class PhotonFile {
         return this;
     }
 
+    /**
+     * Reads a photon file through a memory mapping.  Only the header, the previews and the layer table are parsed, the
+     * data of each layer stays in the mapping until the layer is first used, so even large files open right away and
+     * hardly use the heap.
+     */
+    public PhotonFile mapFile(File file, IPhotonProgress iPhotonProgress) throws Exception {
+        if (file.getName().toLowerCase().endsWith(".photons")) {
+            return readFile(file, iPhotonProgress);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readFile(map, true, iPhotonProgress);
+        }
+        mappedFile = file;
+        return this;
+    }
+
     private PhotonFile readFile(byte[] file, IPhotonProgress iPhotonProgress) throws Exception {
+        return readFile(ByteBuffer.wrap(file), false, iPhotonProgress);
+    }
+
+    private PhotonFile readFile(ByteBuffer file, boolean lazy, IPhotonProgress iPhotonProgress) throws Exception {
         iPhotonProgress.showInfo("Reading Photon file header information...");
         PhotonFileHeader photonFileHeader = new PhotonFileHeader(file);
         iFileHeader = photonFileHeader;
@@ -88,20 +122,50 @@ public class PhotonFile {
             photonFileHeader.readParameters(file);
         }
         iPhotonProgress.showInfo("Reading photon layers information...");
-        layers = PhotonFileLayer.readLayers(photonFileHeader, file, margin, iPhotonProgress);
+        layers = PhotonFileLayer.readLayers(photonFileHeader, file, lazy, margin, iPhotonProgress);
         resetMarginAndIslandInfo();
 
         return this;
     }
 
+    /**
+     * Writes the file to a temporary file next to it, which then replaces the file.  The layers of a mapped file may
+     * still read from the mapping, which is only released by the garbage collector, so the file it maps is never
+     * truncated or rewritten in place.  Where the file system refuses to replace a mapped file (Windows), the data is
+     * kept in the temporary file and the exception names it.
+     */
     public void saveFile(File file) throws Exception {
-        FileOutputStream fileOutputStream = new FileOutputStream(file);
-        writeFile(fileOutputStream);
-        fileOutputStream.flush();
-        fileOutputStream.close();
+        Path target = file.getAbsoluteFile().toPath();
+        // created like any new file, so it gets the usual permissions, Files.createTempFile() would make it owner only
+        Path temp = null;
+        FileChannel channel = null;
+        while (channel == null) {
+            temp = target.resolveSibling(target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException e) {
+                // try another name
+            }
+        }
+        try (PhotonOutputStream os = new PhotonOutputStream(channel)) {
+            writeFile(os);
+        } catch (Exception e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            boolean mapped = mappedFile != null && Files.exists(target) && Files.isSameFile(target, mappedFile.toPath());
+            throw new IOException("Could not replace " + target + (mapped ? ", it is still mapped" : "") + ", the file was saved as " + temp, e);
+        }
     }
 
-    private void writeFile(OutputStream outputStream) throws Exception {
+    private void writeFile(PhotonOutputStream os) throws Exception {
         int antiAliasLevel = iFileHeader.getAALevels();
 
         int headerPos = 0;
@@ -124,8 +188,6 @@ public class PhotonFile {
         int dataPosition = layerDefinitionPos + (PhotonFileLayer.getByteSize() * iFileHeader.getNumberOfLayers() * antiAliasLevel);
 
 
-        PhotonOutputStream os = new PhotonOutputStream(outputStream);
-
         ((PhotonFileHeader)iFileHeader).save(os, previewOnePos, previewTwoPos, layerDefinitionPos, parametersPos, machineInfoPos);
         previewOne.save(os, previewOnePos);
         previewTwo.save(os, previewTwoPos);
@@ -537,9 +599,24 @@ public class PhotonFile {
         iFileHeader.setAALevels(levels, layers);
     }
 
-	public void addLayer(PhotonLayer photonLayer) {
-		// TODO Auto-generated method stub
-		
+	public PhotonFileLayer addLayer(PhotonLayer photonLayer) {
+		PhotonFileLayer photonFileLayer = new PhotonFileLayer(photonLayer, iFileHeader);
+		addLayer(photonFileLayer);
+		return photonFileLayer;
+	}
+
+	/**
+	 * Packs the layers on all cores and adds them in the given order
+	 * @return the new file layers, in the same order
+	 */
+	public List<PhotonFileLayer> addLayers(List<PhotonLayer> photonLayers) {
+		List<PhotonFileLayer> fileLayers = photonLayers.parallelStream()
+				.map(photonLayer -> new PhotonFileLayer(photonLayer, iFileHeader))
+				.collect(Collectors.toList());
+		for (PhotonFileLayer photonFileLayer : fileLayers) {
+			addLayer(photonFileLayer);
+		}
+		return fileLayers;
 	}
 
 	public void addLayer(PhotonFileLayer photonFileLayer) {
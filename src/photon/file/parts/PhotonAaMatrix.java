@@ -24,10 +24,15 @@
 
 package photon.file.parts;
 
+import java.util.stream.IntStream;
+
+/**
+ * 5x5 anti-aliasing kernel.  calc() filters a one bit layer with it and splits the result into the AA levels.
+ */
 public class PhotonAaMatrix {
+    private static final int BAND = 64;     // rows filtered by one task
 
-    public Integer[][] aaMatrix = new Integer[5][5];
-    private Boolean[] hasDivisor = new Boolean[5];
+    public int[][] aaMatrix = new int[5][5];
 
     public void clear() {
         for (int y = 0; y < 5; y++) {
@@ -41,56 +46,248 @@ public class PhotonAaMatrix {
         aaMatrix[y-1][x-1] = val;
     }
 
-    public int[][] calc(int[][] source) {
-        int[][] target = null;
+    /**
+     * Filters a layer with the kernel and thresholds the result in the same sweep.  The layer is taken as 255 where a
+     * pixel is set and 0 elsewhere, the filtered value is the weighted sum of the 5x5 neighbourhood divided by the sum
+     * of the weights, and taps outside the layer use the center pixel.  Kernel rows whose weights add up to 0 or less
+     * are ignored.  Separable kernels are filtered in a horizontal and a vertical pass, with running sums for the rows
+     * of a box kernel, other kernels tap by tap.  Bands of rows are filtered in parallel.
+     * @param thresholds ascending filtered values from 1 to 255
+     * @return for every threshold the pixels whose filtered value reaches it
+     */
+    public PhotonBitmap[] calc(PhotonBitmap source, int[] thresholds) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Kernel kernel = new Kernel(aaMatrix, thresholds);
+        PhotonBitmap[] targets = new PhotonBitmap[thresholds.length];
+        for (int t = 0; t < targets.length; t++) {
+            targets[t] = new PhotonBitmap(width, height);
+        }
+        IntStream.range(0, (height + BAND - 1) / BAND).parallel()
+                .forEach(b -> filter(source, targets, kernel, b * BAND, Math.min(height, (b + 1) * BAND)));
+        return targets;
+    }
 
-        if (source!=null) {
-            target = source.clone();
+    /**
+     * Filters rows y0 to y1 (exclusive)
+     */
+    private static void filter(PhotonBitmap source, PhotonBitmap[] targets, Kernel kernel, int y0, int y1) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        // the rows of the band and two rows around it, as one byte per pixel, empty rows share one array
+        int r0 = Math.max(0, y0 - 2);
+        int r1 = Math.min(height, y1 + 2);
+        byte[] emptyRow = new byte[width];
+        byte[][] bits = new byte[r1 - r0][];
+        for (int y = r0; y < r1; y++) {
+            if (source.isRowEmpty(y)) {
+                bits[y - r0] = emptyRow;
+            } else {
+                byte[] row = bits[y - r0] = new byte[width];
+                for (int x = source.nextSetBit(0, y); x >= 0; x = source.nextSetBit(x + 1, y)) {
+                    row[x] = 1;
+                }
+            }
+        }
+        int[][] rowSums = null;
+        if (kernel.separable) {
+            int[] emptySums = new int[width];
+            rowSums = new int[r1 - r0][];
+            for (int r = 0; r < rowSums.length; r++) {
+                rowSums[r] = bits[r] == emptyRow ? emptySums : kernel.horizontal(bits[r]);
+            }
+        }
+
+        for (int y = y0; y < y1; y++) {
+            boolean empty = true;
+            for (int r = Math.max(r0, y - 2); r < Math.min(r1, y + 3); r++) {
+                empty &= bits[r - r0] == emptyRow;
+            }
+            if (empty && kernel.level(0) == 0) continue;
 
+            boolean inner = y >= 2 && y < height - 2;
+            for (int x = 0; x < width; x++) {
+                int sum;
+                if (inner && x >= 2 && x < width - 2) {
+                    sum = kernel.separable ? kernel.vertical(rowSums, y - r0, x) : kernel.direct(bits, y - r0, x);
+                } else {
+                    sum = kernel.border(bits, r0, y, x, width, height);
+                }
+                for (int t = kernel.level(sum) - 1; t >= 0; t--) {
+                    targets[t].set(x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * The kernel prepared for filtering one bit layers, all sums are of the weights of the set pixels
+     */
+    private static final class Kernel {
+        private final int[]  tapY;          // the non zero weights
+        private final int[]  tapX;
+        private final int[]  tapWeight;
+        private final int    minSum;        // lowest and highest possible sum
+        private final byte[] levels;        // number of thresholds reached by a sum, from minSum up
+        // separable kernels, weight y, x is columnWeights[y] * rowWeights[x] / scale
+        private boolean      separable;
+        private final int[]  columnWeights = new int[5];
+        private final int[]  rowWeights = new int[5];
+        private int          scale;
+        private boolean      box;           // all non zero row weights are the same and next to each other
+        private int          boxFrom;
+        private int          boxTo;
+
+        Kernel(int[][] matrix, int[] thresholds) {
+            int[][] weights = new int[5][5];
             int divisor = 0;
             for (int y = 0; y < 5; y++) {
-                int rowDivistor = 0;
+                int rowSum = 0;
+                for (int x = 0; x < 5; x++) {
+                    rowSum += matrix[y][x];
+                }
+                if (rowSum > 0) {
+                    weights[y] = matrix[y].clone();
+                }
+                divisor += rowSum;
+            }
+            if (divisor <= 0) {
+                // nothing to filter with, the layer is kept as it is
+                weights = new int[5][5];
+                weights[2][2] = 1;
+                divisor = 1;
+            }
+
+            int taps = 0, min = 0, max = 0;
+            for (int[] row : weights) {
+                for (int w : row) {
+                    if (w != 0) taps++;
+                    if (w < 0) min += w; else max += w;
+                }
+            }
+            tapY = new int[taps];
+            tapX = new int[taps];
+            tapWeight = new int[taps];
+            for (int y = 0, i = 0; y < 5; y++) {
+                for (int x = 0; x < 5; x++) {
+                    if (weights[y][x] != 0) {
+                        tapY[i] = y - 2;
+                        tapX[i] = x - 2;
+                        tapWeight[i++] = weights[y][x];
+                    }
+                }
+            }
+            minSum = min;
+            levels = new byte[max - min + 1];
+            for (int sum = min; sum <= max; sum++) {
+                int value = sum * 255 / divisor;
+                int level = 0;
+                while (level < thresholds.length && value >= thresholds[level]) level++;
+                levels[sum - min] = (byte) level;
+            }
+
+            findSeparable(weights);
+        }
+
+        /**
+         * Checks if every row of the kernel is a multiple of one row
+         */
+        private void findSeparable(int[][] weights) {
+            int y0 = tapY[0] + 2, x0 = tapX[0] + 2;
+            int pivot = weights[y0][x0];
+            for (int y = 0; y < 5; y++) {
                 for (int x = 0; x < 5; x++) {
-                    rowDivistor += aaMatrix[y][x];
+                    if (weights[y][x] * pivot != weights[y][x0] * weights[y0][x]) return;
                 }
-                hasDivisor[y] = (rowDivistor>0);
-                divisor += rowDivistor;
-            }
-
-            if (divisor >0) {
-                int height = source.length;
-                if (height > 0) {
-                    int width = source[0].length;
-                    if (width > 0) {
-                        int sum;;
-                        int dy;
-                        int dx;
-                        for (int y = 0; y < height; y++) {
-                            for (int x = 0; x < width; x++) {
-                                sum = 0;
-                                for (int cy = -2; cy <= 2; cy++) {
-                                    if (hasDivisor[2+cy])
-                                        for (int cx = -2; cx <= 2; cx++) {
-                                            dy = y+cy;
-                                            dx = x+cx;
-                                            if (dy>=0 && dy< height) {
-                                                if (dx>=0 && dx< width) {
-                                                    sum += source[dy][dx] * aaMatrix[2+cy][2+cx];
-                                                } else {
-                                                    sum += source[y][x] * aaMatrix[2+cy][2+cx];
-                                                }
-                                            } else {
-                                                sum += source[y][x] * aaMatrix[2+cy][2+cx];
-                                            }
-                                        }
-                                }
-                                target[y][x] = sum / divisor;
-                            }
-                        }
+            }
+            separable = true;
+            scale = pivot;
+            for (int i = 0; i < 5; i++) {
+                columnWeights[i] = weights[i][x0];
+                rowWeights[i] = weights[y0][i];
+            }
+            boxFrom = 5;
+            boxTo = -1;
+            for (int x = 0; x < 5; x++) {
+                if (rowWeights[x] != 0) {
+                    boxFrom = Math.min(boxFrom, x);
+                    boxTo = x;
+                }
+            }
+            box = true;
+            for (int x = boxFrom; x <= boxTo; x++) {
+                box &= rowWeights[x] == rowWeights[boxFrom];
+            }
+        }
+
+        int level(int sum) {
+            return levels[sum - minSum];
+        }
+
+        /**
+         * Weighted sums of the rows, for the columns 2 to width - 3 that have all their taps inside the row
+         */
+        int[] horizontal(byte[] bits) {
+            int width = bits.length;
+            int[] sums = new int[width];
+            if (box) {
+                // running count of the set pixels under the box
+                int weight = rowWeights[boxFrom], from = boxFrom - 2, to = boxTo - 2;
+                int count = 0;
+                for (int x = 2 + from; x <= 2 + to; x++) {
+                    count += bits[x];
+                }
+                for (int x = 2; x < width - 2; x++) {
+                    sums[x] = count * weight;
+                    if (x + 1 < width - 2) {
+                        count += bits[x + 1 + to] - bits[x + from];
+                    }
+                }
+            } else {
+                for (int x = 2; x < width - 2; x++) {
+                    int sum = 0;
+                    for (int i = 0; i < 5; i++) {
+                        sum += rowWeights[i] * bits[x + i - 2];
                     }
+                    sums[x] = sum;
+                }
+            }
+            return sums;
+        }
+
+        int vertical(int[][] rowSums, int r, int x) {
+            int sum = 0;
+            for (int i = 0; i < 5; i++) {
+                if (columnWeights[i] != 0) {
+                    sum += columnWeights[i] * rowSums[r + i - 2][x];
                 }
             }
+            return sum / scale;
+        }
+
+        /**
+         * Sum at a pixel whose taps are all inside the layer
+         */
+        int direct(byte[][] bits, int r, int x) {
+            int sum = 0;
+            for (int i = 0; i < tapWeight.length; i++) {
+                sum += tapWeight[i] * bits[r + tapY[i]][x + tapX[i]];
+            }
+            return sum;
+        }
+
+        /**
+         * Sum at a pixel near the edge, taps outside the layer use the center pixel
+         */
+        int border(byte[][] bits, int r0, int y, int x, int width, int height) {
+            int center = bits[y - r0][x];
+            int sum = 0;
+            for (int i = 0; i < tapWeight.length; i++) {
+                int ty = y + tapY[i], tx = x + tapX[i];
+                boolean inside = ty >= 0 && ty < height && tx >= 0 && tx < width;
+                sum += tapWeight[i] * (inside ? bits[ty - r0][tx] : center);
+            }
+            return sum;
         }
-        return target;
     }
 }
@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.util.Arrays;
+
+/**
+ * One bit per pixel layer image, each row packed into longs (bit x & 63 of word x >> 6).  Uses the same orientation
+ * as PhotonLayer: width is the length of a row, height the number of rows.
+ */
+public class PhotonBitmap {
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private final long[] data;
+
+    public PhotonBitmap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        wordsPerRow = (width + 63) >> 6;
+        data = new long[wordsPerRow * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    /**
+     * The backing array, row y starts at y * getWordsPerRow()
+     */
+    public long[] getData() {
+        return data;
+    }
+
+    public boolean get(int x, int y) {
+        return (data[y * wordsPerRow + (x >> 6)] & (1L << x)) != 0;
+    }
+
+    public void set(int x, int y) {
+        data[y * wordsPerRow + (x >> 6)] |= 1L << x;
+    }
+
+    /**
+     * Sets pixels x0 (inclusive) to x1 (exclusive) of row y
+     */
+    public void setSpan(int y, int x0, int x1) {
+        if (x0 >= x1) return;
+        int row = y * wordsPerRow;
+        int w0 = x0 >> 6, w1 = (x1 - 1) >> 6;
+        long first = -1L << x0;
+        long last = -1L >>> (63 - ((x1 - 1) & 63));
+        if (w0 == w1) {
+            data[row + w0] |= first & last;
+            return;
+        }
+        data[row + w0] |= first;
+        for (int w = w0 + 1; w < w1; w++) {
+            data[row + w] = -1L;
+        }
+        data[row + w1] |= last;
+    }
+
+    /**
+     * Clears pixels x0 (inclusive) to x1 (exclusive) of row y
+     */
+    public void clearSpan(int y, int x0, int x1) {
+        if (x0 >= x1) return;
+        int row = y * wordsPerRow;
+        int w0 = x0 >> 6, w1 = (x1 - 1) >> 6;
+        long first = -1L << x0;
+        long last = -1L >>> (63 - ((x1 - 1) & 63));
+        if (w0 == w1) {
+            data[row + w0] &= ~(first & last);
+            return;
+        }
+        data[row + w0] &= ~first;
+        for (int w = w0 + 1; w < w1; w++) {
+            data[row + w] = 0;
+        }
+        data[row + w1] &= ~last;
+    }
+
+    /**
+     * Number of set pixels in row y
+     */
+    public int countRow(int y) {
+        int count = 0;
+        for (int w = y * wordsPerRow, end = w + wordsPerRow; w < end; w++) {
+            count += Long.bitCount(data[w]);
+        }
+        return count;
+    }
+
+    public boolean isRowEmpty(int y) {
+        for (int w = y * wordsPerRow, end = w + wordsPerRow; w < end; w++) {
+            if (data[w] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Number of set pixels in the whole bitmap
+     */
+    public long count() {
+        long count = 0;
+        for (long word : data) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return the first set pixel of row y at or after x, or -1 if there is none
+     */
+    public int nextSetBit(int x, int y) {
+        if (x >= width) return -1;
+        int row = y * wordsPerRow;
+        int w = x >> 6;
+        long word = data[row + w] & (-1L << x);
+        while (word == 0) {
+            if (++w == wordsPerRow) return -1;
+            word = data[row + w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Keeps only the pixels that are also set in other, which must have the same size
+     */
+    public void and(PhotonBitmap other) {
+        for (int i = 0; i < data.length; i++) {
+            data[i] &= other.data[i];
+        }
+    }
+
+    /**
+     * Clears the pixels that are set in other, which must have the same size
+     */
+    public void andNot(PhotonBitmap other) {
+        for (int i = 0; i < data.length; i++) {
+            data[i] &= ~other.data[i];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(data, 0);
+    }
+}
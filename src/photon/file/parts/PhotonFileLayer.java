@@ -27,8 +27,12 @@ package photon.file.parts;
 import photon.file.parts.photon.PhotonFileHeader;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * by bn on 01/07/2018.
@@ -45,15 +49,18 @@ public class PhotonFileLayer {
     private int unknown4;
 
     private byte[] imageData;
+    private ByteBuffer imageSource;     // view of the data in a mapped file, copied to imageData on first use
 
     private byte[] packedLayerImage;
 
-    private ArrayList<BitSet> islandRows;
+    private PhotonBitmap islandRows;      // null if the layer has no islands
     private int isLandsCount;
     private long pixels;
 
     private ArrayList<PhotonFileLayer> antiAliasLayers = new ArrayList<>();
 
+    private static final int CALCULATE_RUN = 4;     // minimum number of consecutive layers calculated by one task
+
     private boolean extendsMargin;
     private PhotonFileHeader photonFileHeader;
     public boolean isCalculated;
@@ -102,17 +109,48 @@ public class PhotonFileLayer {
 		}
 	}
     
+    /**
+     * Creates a layer by packing a PhotonLayer, the layer is only read so several can be packed at once
+     */
+    public PhotonFileLayer(PhotonLayer layer, IFileHeader photonFileHeader) {
+        layerPositionZ = 0.05f;
+        layerExposure = 10.0f;
+        layerOffTimeSeconds = 0;
+
+        this.photonFileHeader = (PhotonFileHeader) photonFileHeader;
+
+        try {
+            saveLayer(layer);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates a layer from RLE data that was encoded directly from spans
+     */
+    public PhotonFileLayer(PhotonRleEncoder encoder, IFileHeader photonFileHeader) {
+        layerPositionZ = 0.05f;
+        layerExposure = 10.0f;
+        layerOffTimeSeconds = 0;
+
+        this.photonFileHeader = (PhotonFileHeader) photonFileHeader;
+
+        packedLayerImage = encoder.getPackedLayerImage();
+        imageData = encoder.getImageData();
+        dataSize = imageData.length;
+        islandRows = null;
+        isLandsCount = 0;
+    }
+
 	public int savePos(int dataPosition) throws Exception {
         dataAddress = dataPosition;
         return dataPosition + dataSize;
     }
 
     public void save(PhotonOutputStream os) throws Exception {
-    	System.out.println("posZ = " + layerPositionZ);
         os.writeFloat(layerPositionZ);
-    	System.out.println("layerExposure = " + layerExposure);
         os.writeFloat(layerExposure);
-    	System.out.println("layerOffTimeSeconds = " + layerOffTimeSeconds);
         os.writeFloat(layerOffTimeSeconds);
 
         os.writeInt(dataAddress);
@@ -125,110 +163,111 @@ public class PhotonFileLayer {
     }
 
     public void saveData(PhotonOutputStream os) throws Exception {
-        os.write(imageData, 0, dataSize);
+        os.write(getImageData(), 0, dataSize);
+    }
+
+    /**
+     * @return the RLE data, read from the mapped file on the first call
+     */
+    private synchronized byte[] getImageData() {
+        if (imageData == null && imageSource != null) {
+            imageData = new byte[dataSize];
+            imageSource.duplicate().get(imageData);
+            imageSource = null;
+        }
+        return imageData;
+    }
+
+    /**
+     * Copies the data of a layer read with a mapped file to the heap, so the file is no longer needed
+     */
+    public void load() {
+        getImageData();
+        for (PhotonFileLayer layer : antiAliasLayers) {
+            layer.getImageData();
+        }
     }
 
     public static int getByteSize() {
         return 4 + 4 + 4 + 4 + 4 + 4 + 4 + 4 + 4;
     }
 
-    public ArrayList<BitSet> unpackImage(int resolutionX, int resolutionY) {
-        pixels = 0;
-        resolutionX = resolutionX - 1;
-        ArrayList<BitSet> unpackedImage = new ArrayList<>(resolutionY);
-        BitSet currentRow = new BitSet(resolutionX);
-        unpackedImage.add(currentRow);
+    public PhotonBitmap unpackImage(int resolutionX, int resolutionY) {
+        PhotonBitmap bitmap = new PhotonBitmap(resolutionX, resolutionY);
+        unpackImage(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Decodes the layer into a bitmap of the layer's size, replacing its content
+     */
+    public void unpackImage(PhotonBitmap bitmap) {
+        pixels = unpack(getImageData(), bitmap);
+    }
+
+    /**
+     * Decodes RLE image data into a bitmap, replacing its content
+     * @return the number of exposed pixels
+     */
+    private static long unpack(byte[] imageData, PhotonBitmap bitmap) {
+        bitmap.clear();
+        long pixels = 0;
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
         int x = 0;
+        int y = 0;
         for (byte rle : imageData) {
             int length = rle & 0x7F;
-            boolean color = (rle & 0x80) == 0x80;
-            if (color) {
+            if ((rle & 0x80) == 0x80) {
                 pixels += length;
-            }
-            int endPosition = x + (length - 1);
-            int lineEnd = Integer.min(endPosition, resolutionX);
-            if (color) {
-                currentRow.set(x, 1 + lineEnd);
-            }
-            if (endPosition > resolutionX) {
-                currentRow = new BitSet();
-                unpackedImage.add(currentRow);
-                lineEnd = endPosition - (resolutionX + 1);
-                if (color ) {
-                    currentRow.set(0, 1 + lineEnd);
+                // runs may continue on the next row
+                for (int from = x, row = y, left = length; left > 0 && row < height; from = 0, row++) {
+                    int to = Math.min(width, from + left);
+                    bitmap.setSpan(row, from, to);
+                    left -= to - from;
                 }
             }
-            x = lineEnd + 1;
-            if (x > resolutionX) {
-                currentRow = new BitSet();
-                unpackedImage.add(currentRow);
-                x = 0;
+            x += length;
+            while (x >= width) {
+                x -= width;
+                y++;
             }
         }
-        return unpackedImage;
+        return pixels;
     }
 
-    private void aaPixels(ArrayList<BitSet> unpackedImage, PhotonLayer photonLayer) {
+    private void aaPixels(PhotonBitmap unpackedImage, PhotonLayer photonLayer) {
         photonLayer.clear();
-
-        for (int y = 0; y < unpackedImage.size(); y++) {
-            BitSet currentRow = unpackedImage.get(y);
-            if (currentRow != null) {
-                for (int x = 0; x < currentRow.length(); x++) {
-                    if (currentRow.get(x)) {
-                        photonLayer.unSupported(x, y);
-                    }
-                }
-            }
-        }
+        photonLayer.unSupported(unpackedImage);
     }
 
-    private void unknownPixels(ArrayList<BitSet> unpackedImage, PhotonLayer photonLayer) {
+    private void unknownPixels(PhotonBitmap unpackedImage, PhotonLayer photonLayer) {
         photonLayer.clear();
-
-        for (int y = 0; y < unpackedImage.size(); y++) {
-            BitSet currentRow = unpackedImage.get(y);
-            if (currentRow != null) {
-            	int x = 0;
-            	while ((x = currentRow.nextSetBit(x)) >= 0) {
-            		photonLayer.supported(x, y);
-            		++x;
-            	}
-            }
-        }
+        photonLayer.supported(unpackedImage);
     }
 
-    private void calculate(ArrayList<BitSet> unpackedImage, ArrayList<BitSet> previousUnpackedImage, PhotonLayer photonLayer) {
-        islandRows = new ArrayList<>();
-        isLandsCount = 0;
-
+    private void calculate(PhotonBitmap unpackedImage, PhotonBitmap previousUnpackedImage, PhotonLayer photonLayer) {
         photonLayer.clear();
-
-        for (int y = 0; y < unpackedImage.size(); y++) {
-            BitSet currentRow = unpackedImage.get(y);
-            BitSet prevRow = previousUnpackedImage != null ? previousUnpackedImage.get(y) : null;
-            if (currentRow != null) {
-            	int x = 0;
-            	while ((x = currentRow.nextSetBit(x)) >= 0) {
-                    if (prevRow == null || prevRow.get(x)) {
-                        photonLayer.supported(x, y);
-                    } else {
-                        photonLayer.island(x, y);
-                    }
-                    ++x;
-            	}
-            }
-        }
-
+        photonLayer.supported(unpackedImage, previousUnpackedImage);
         photonLayer.reduce();
+        setIslands(photonLayer);
+    }
 
-        isLandsCount = photonLayer.setIslands(islandRows);
+    private void setIslands(PhotonLayer photonLayer) {
+        isLandsCount = photonLayer.getIslandCount();
+        islandRows = photonLayer.getIslands();
     }
 
 
     public static List<PhotonFileLayer> readLayers(PhotonFileHeader photonFileHeader, byte[] file, int margin, IPhotonProgress iPhotonProgress) throws Exception {
-        //PhotonLayer photonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+        return readLayers(photonFileHeader, ByteBuffer.wrap(file), false, margin, iPhotonProgress);
+    }
 
+    /**
+     * @param lazy true to only keep a view of every layer's data in the file, which is copied when the layer is first
+     *             used.  The file buffer must then stay valid as long as the layers are used.
+     */
+    public static List<PhotonFileLayer> readLayers(PhotonFileHeader photonFileHeader, ByteBuffer file, boolean lazy, int margin, IPhotonProgress iPhotonProgress) throws Exception {
         List<PhotonFileLayer> layers = new ArrayList<>();
 
         int antiAliasLevel = 1;
@@ -237,18 +276,18 @@ public class PhotonFileLayer {
         }
 
         int layerCount = photonFileHeader.getNumberOfLayers();
+        int tableAddress = photonFileHeader.getLayersDefinitionOffsetAddress();
+        int tableSize = getByteSize() * layerCount * antiAliasLevel;
 
-        try (PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(file, photonFileHeader.getLayersDefinitionOffsetAddress(), file.length))) {
-            Hashtable<Integer, PhotonFileLayer> layerMap = new Hashtable<>();
+        try (PhotonInputStream ds = new PhotonInputStream(file, tableAddress, Math.min(tableSize, file.limit() - tableAddress))) {
             for (int i = 0; i < layerCount; i++) {
 
                 iPhotonProgress.showInfo("Reading photon file layer " + (i + 1) + "/" + photonFileHeader.getNumberOfLayers());
 
                 PhotonFileLayer layer = new PhotonFileLayer(ds);
                 layer.photonFileHeader = photonFileHeader;
-                layer.imageData = Arrays.copyOfRange(file, layer.dataAddress, layer.dataAddress + layer.dataSize);
+                layer.readData(file, lazy);
                 layers.add(layer);
-                layerMap.put(i, layer);
             }
 
             if (antiAliasLevel > 1) {
@@ -258,124 +297,143 @@ public class PhotonFileLayer {
 
                         PhotonFileLayer layer = new PhotonFileLayer(ds);
                         layer.photonFileHeader = photonFileHeader;
-                        layer.imageData = Arrays.copyOfRange(file, layer.dataAddress, layer.dataAddress + layer.dataSize);
-
-                        layerMap.get(i).addAntiAliasLayer(layer);
+                        layer.readData(file, lazy);
 
+                        layers.get(i).addAntiAliasLayer(layer);
                     }
                 }
             }
         }
 
-        //photonLayer.unLink();
-        System.gc();
-
         return layers;
     }
 
+    private void readData(ByteBuffer file, boolean lazy) {
+        if (lazy) {
+            imageSource = PhotonInputStream.slice(file, dataAddress, dataSize);
+        } else {
+            imageData = PhotonInputStream.copy(file, dataAddress, dataSize);
+        }
+    }
+
     private void addAntiAliasLayer(PhotonFileLayer layer) {
         antiAliasLayers.add(layer);
     }
 
+    /**
+     * Calculates the AA sublayers of all layers.  The layers are independent, so they are filtered and packed in
+     * parallel, each task with its own buffers.
+     */
     public static void calculateAALayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, PhotonAaMatrix photonAaMatrix, IPhotonProgress iPhotonProgress) throws Exception {
-        PhotonLayer photonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-        int[][] source = new int[photonFileHeader.getResolutionY()][photonFileHeader.getResolutionX()];
-
-        int i = 0;
-        for (PhotonFileLayer layer : layers) {
-            ArrayList<BitSet> unpackedImage = layer.unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-
-            iPhotonProgress.showInfo("Calculating AA for photon file layer " + i + "/" + photonFileHeader.getNumberOfLayers());
+        int width = photonFileHeader.getResolutionX();
+        int height = photonFileHeader.getResolutionY();
+        AtomicInteger done = new AtomicInteger();
+        try {
+            layers.parallelStream().forEach(layer -> {
+                PhotonLayer photonLayer = new PhotonLayer(width, height);
+                PhotonBitmap unpackedImage = layer.unpackImage(width, height);
 
+                iPhotonProgress.showInfo("Calculating AA for photon file layer " + done.getAndIncrement() + "/" + photonFileHeader.getNumberOfLayers());
 
-            for (int y = 0; y < photonFileHeader.getResolutionY(); y++) {
-                for (int x = 0; x < photonFileHeader.getResolutionX(); x++) {
-                    source[y][x] = 0;
+                // all AA levels come from one filter pass
+                int aaTresholdDiff = 255 / photonFileHeader.getAntiAliasingLevel();
+                int[] thresholds = new int[layer.antiAliasLayers.size()];
+                for (int a = 0; a < thresholds.length; a++) {
+                    thresholds[a] = (a + 1) * aaTresholdDiff;
                 }
-            }
-
-            for (int y = 0; y < unpackedImage.size(); y++) {
-                BitSet currentRow = unpackedImage.get(y);
-                if (currentRow != null) {
-                    for (int x = 0; x < currentRow.length(); x++) {
-                        if (currentRow.get(x)) {
-                            source[y][x] = 255;
-                        }
-                    }
-                }
-            }
-
-            // Calc
-            int[][] target = photonAaMatrix.calc(source);
+                PhotonBitmap[] targets = photonAaMatrix.calc(unpackedImage, thresholds);
 
-            int aaTresholdDiff = 255 / photonFileHeader.getAntiAliasingLevel();
-            int aaTreshold = 0;
-            for (PhotonFileLayer aaFileLayer : layer.antiAliasLayers) {
-                photonLayer.clear();
-                aaTreshold += aaTresholdDiff;
+                for (int a = 0; a < thresholds.length; a++) {
+                    PhotonFileLayer aaFileLayer = layer.antiAliasLayers.get(a);
+                    photonLayer.clear();
+                    photonLayer.supported(targets[a]);
 
-                for (int y = 0; y < photonFileHeader.getResolutionY(); y++) {
-                    for (int x = 0; x < photonFileHeader.getResolutionX(); x++) {
-                        if (target[y][x] >= aaTreshold) {
-                            photonLayer.supported(x, y);
-                        }
+                    try {
+                        aaFileLayer.saveLayer(photonLayer);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
                     }
                 }
-
-                aaFileLayer.saveLayer(photonLayer);
-            }
-
-            i++;
+                photonLayer.unLink();
+            });
+        } catch (CompletionException e) {
+            throw (Exception) e.getCause();
         }
-        photonLayer.unLink();
         System.gc();
-
     }
 
+    /**
+     * Calculates the supported pixels and islands of all layers.  A layer only depends on its own image and the one of
+     * the layer below, so the layers are split into runs of consecutive layers that are calculated in parallel.  Within
+     * a run every image is unpacked once and kept as the previous image of the next layer, only the first layer of a
+     * run unpacks the layer below it again.  The results are stored in each layer, so they are in order however the
+     * runs are scheduled.
+     */
     public static void calculateLayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, int margin, IPhotonProgress iPhotonProgress) throws Exception {
-        PhotonLayer photonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-        ArrayList<BitSet> previousUnpackedImage = null;
-        int i = 0;
-        for (PhotonFileLayer layer : layers) {
-            ArrayList<BitSet> unpackedImage = layer.unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+        int count = layers.size();
+        int runs = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, count / CALCULATE_RUN));
+        AtomicInteger done = new AtomicInteger();
+        IntStream.range(0, runs).parallel().forEach(r ->
+                calculateLayers(photonFileHeader, layers, margin, r * count / runs, (r + 1) * count / runs, done, iPhotonProgress));
+        System.gc();
+    }
+
+    /**
+     * Calculates layers from (inclusive) to to (exclusive) one after the other
+     */
+    private static void calculateLayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, int margin, int from, int to, AtomicInteger done, IPhotonProgress iPhotonProgress) {
+        int width = photonFileHeader.getResolutionX();
+        int height = photonFileHeader.getResolutionY();
+        PhotonLayer photonLayer = new PhotonLayer(width, height);
+        // two bitmaps, swapped after every layer so the previous one is reused for the next layer
+        PhotonBitmap unpackedImage = new PhotonBitmap(width, height);
+        PhotonBitmap previousUnpackedImage = null;
+        PhotonBitmap spare = new PhotonBitmap(width, height);
+        PhotonBitmap aaUnpackedImage = null;
+        PhotonLayer aaPhotonLayer = null;
+        if (from > 0) {
+            previousUnpackedImage = spare;
+            spare = new PhotonBitmap(width, height);
+            unpack(layers.get(from - 1).getImageData(), previousUnpackedImage);
+        }
+        for (int i = from; i < to; i++) {
+            PhotonFileLayer layer = layers.get(i);
+            layer.unpackImage(unpackedImage);
 
-            iPhotonProgress.showInfo("Calculating photon file layer " + i + "/" + photonFileHeader.getNumberOfLayers());
+            iPhotonProgress.showInfo("Calculating photon file layer " + done.getAndIncrement() + "/" + photonFileHeader.getNumberOfLayers());
 
             if (margin > 0) {
                 layer.extendsMargin = layer.checkMargin(unpackedImage, margin);
             }
 
-            layer.unknownPixels(unpackedImage, photonLayer);
-
             layer.calculate(unpackedImage, previousUnpackedImage, photonLayer);
 
-            if (previousUnpackedImage != null) {
-                previousUnpackedImage.clear();
-            }
             previousUnpackedImage = unpackedImage;
+            unpackedImage = spare;
+            spare = previousUnpackedImage;
 
             layer.packedLayerImage = photonLayer.packLayerImage();
             layer.isCalculated = true;
 
             if (photonFileHeader.getVersion() > 1) {
                 for (PhotonFileLayer aaFileLayer : layer.antiAliasLayers) {
-                    ArrayList<BitSet> aaUnpackedImage = aaFileLayer.unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-                    PhotonLayer aaPhotonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+                    if (aaUnpackedImage == null) {
+                        aaUnpackedImage = new PhotonBitmap(width, height);
+                        aaPhotonLayer = new PhotonLayer(width, height);
+                    }
+                    aaFileLayer.unpackImage(aaUnpackedImage);
                     aaFileLayer.unknownPixels(aaUnpackedImage, aaPhotonLayer);
                     aaFileLayer.packedLayerImage = aaPhotonLayer.packLayerImage();
                     aaFileLayer.isCalculated = false;
                 }
             }
-
-            i++;
         }
         photonLayer.unLink();
-        System.gc();
     }
 
     public static void calculateLayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, int margin, int layerNo) throws Exception {
         PhotonLayer photonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-        ArrayList<BitSet> previousUnpackedImage = null;
+        PhotonBitmap previousUnpackedImage = null;
 
         if (layerNo > 0) {
             previousUnpackedImage = layers.get(layerNo - 1).unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
@@ -383,7 +441,7 @@ public class PhotonFileLayer {
 
         for (int i = 0; i < 2; i++) {
             PhotonFileLayer layer = layers.get(layerNo + i);
-            ArrayList<BitSet> unpackedImage = layer.unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+            PhotonBitmap unpackedImage = layer.unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
 
             if (margin > 0) {
                 layer.extendsMargin = layer.checkMargin(unpackedImage, margin);
@@ -393,9 +451,6 @@ public class PhotonFileLayer {
 
             layer.calculate(unpackedImage, previousUnpackedImage, photonLayer);
 
-            if (previousUnpackedImage != null) {
-                previousUnpackedImage.clear();
-            }
             previousUnpackedImage = unpackedImage;
 
             layer.packedLayerImage = photonLayer.packLayerImage();
@@ -407,11 +462,20 @@ public class PhotonFileLayer {
         System.gc();
     }
 
-    public ArrayList<PhotonRow> getRows() {
-        return PhotonLayer.getRows(packedLayerImage, photonFileHeader.getResolutionX(), isCalculated);
+    /**
+     * Decodes the display data to one color code per pixel, see PhotonLayer.unpackLayerImage(byte[], int, int, int,
+     * boolean, byte[])
+     */
+    public void unpackLayerImage(int step, boolean mirrored, byte[] target) {
+        if (packedLayerImage != null) { // when user tries to show a layer before its calculated
+            PhotonLayer.unpackLayerImage(packedLayerImage, photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY(), step, mirrored, target);
+        }
     }
 
-    public ArrayList<BitSet> getIslandRows() {
+    /**
+     * @return the island pixels, or null if there are none
+     */
+    public PhotonBitmap getIslandRows() {
         return islandRows;
     }
 
@@ -449,10 +513,9 @@ public class PhotonFileLayer {
 
     public void unLink() {
         imageData = null;
+        imageSource = null;
         packedLayerImage = null;
-        if (islandRows != null) {
-            islandRows.clear();
-        }
+        islandRows = null;
         photonFileHeader = null;
     }
 
@@ -460,28 +523,28 @@ public class PhotonFileLayer {
         return extendsMargin;
     }
 
-    private boolean checkMargin(ArrayList<BitSet> unpackedImage, int margin) {
-        if (unpackedImage.size() > margin) {
+    private boolean checkMargin(PhotonBitmap unpackedImage, int margin) {
+        int height = unpackedImage.getHeight();
+        if (height > margin) {
             // check top margin rows
             for (int i = 0; i < margin; i++) {
-                if (!unpackedImage.get(i).isEmpty()) {
+                if (!unpackedImage.isRowEmpty(i)) {
                     return true;
                 }
             }
             // check bottom margin rows
-            for (int i = unpackedImage.size() - margin; i < unpackedImage.size(); i++) {
-                if (!unpackedImage.get(i).isEmpty()) {
+            for (int i = height - margin; i < height; i++) {
+                if (!unpackedImage.isRowEmpty(i)) {
                     return true;
                 }
             }
 
-            for (int i = margin; i < unpackedImage.size() - margin; i++) {
-                BitSet row = unpackedImage.get(i);
-                int nextBit = row.nextSetBit(0);
+            for (int i = margin; i < height - margin; i++) {
+                int nextBit = unpackedImage.nextSetBit(0, i);
                 if (nextBit >= 0 && nextBit < margin) {
                     return true;
                 }
-                nextBit = row.nextSetBit(photonFileHeader.getResolutionX() - margin);
+                nextBit = unpackedImage.nextSetBit(photonFileHeader.getResolutionX() - margin, i);
                 if (nextBit > photonFileHeader.getResolutionX() - margin) {
                     return true;
                 }
@@ -502,19 +565,18 @@ public class PhotonFileLayer {
     }
 
     public void updateLayerIslands(PhotonLayer photonLayer) {
-        islandRows = new ArrayList<>();
-        isLandsCount = photonLayer.setIslands(islandRows);
+        setIslands(photonLayer);
     }
 
     public void saveLayer(PhotonLayer photonLayer) throws Exception {
         this.packedLayerImage = photonLayer.packLayerImage();
         this.imageData = photonLayer.packImageData();
+        this.imageSource = null;
         this.dataSize = imageData.length;
-        islandRows = new ArrayList<>();
-        isLandsCount = photonLayer.setIslands(islandRows);
+        setIslands(photonLayer);
     }
 
-    public ArrayList<BitSet> getUnknownRows() {
+    public PhotonBitmap getUnknownRows() {
         return unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
     }
 
@@ -24,8 +24,7 @@
 
 package photon.file.parts;
 
-import java.io.ByteArrayInputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * by bn on 01/07/2018.
@@ -47,13 +46,15 @@ public class PhotonFileMachineInfo {
     }
 
     public PhotonFileMachineInfo(int address, int byteSize, byte[] file) throws Exception {
+        this(address, byteSize, ByteBuffer.wrap(file));
+    }
+
+    public PhotonFileMachineInfo(int address, int byteSize, ByteBuffer file) throws Exception {
     	
     	this.infoByteSize = byteSize;
     	
     	if (byteSize > 0) {
-	        byte[] data = Arrays.copyOfRange(file, address, address + byteSize);
-	        
-	        try (PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(data))) {
+	        try (PhotonInputStream ds = new PhotonInputStream(file, address, byteSize)) {
 	        	u1 = ds.readInt();
 	        	u2 = ds.readInt();
 	        	u3 = ds.readInt();
@@ -78,7 +79,7 @@ public class PhotonFileMachineInfo {
 	        	
 	        }
 	
-	        machineName = Arrays.copyOfRange(file, machineNameAddress, machineNameAddress + machineNameSize);
+	        machineName = PhotonInputStream.copy(file, machineNameAddress, machineNameSize);
     	}
     }
 
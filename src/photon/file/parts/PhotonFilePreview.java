@@ -25,9 +25,7 @@
 package photon.file.parts;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * by bn on 01/07/2018.
@@ -48,8 +46,11 @@ public class PhotonFilePreview {
     private int p4;
 
     public PhotonFilePreview(int previewAddress, byte[] file) throws Exception {
-        byte[] data = Arrays.copyOfRange(file, previewAddress, previewAddress + 32);
-        PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(data));
+        this(previewAddress, ByteBuffer.wrap(file));
+    }
+
+    public PhotonFilePreview(int previewAddress, ByteBuffer file) throws Exception {
+        PhotonInputStream ds = new PhotonInputStream(file, previewAddress, 32);
 
         resolutionX = ds.readInt();
         resolutionY = ds.readInt();
@@ -60,47 +61,17 @@ public class PhotonFilePreview {
         p3 = ds.readInt();
         p4 = ds.readInt();
 
-        rawImageData = Arrays.copyOfRange(file, imageAddress, imageAddress + dataSize);
+        rawImageData = PhotonInputStream.copy(file, imageAddress, dataSize);
 
         decodeImageData();
     }
 
     public PhotonFilePreview(BufferedImage image) {
-		imageData = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
         resolutionX = image.getWidth();
         resolutionY = image.getHeight();
-		encodeImageData();
-	}
-
-    private void encodeImageData() {
-    	ArrayList<Byte> data = new ArrayList<Byte>();
-
-		int currSegLength = 1;
-		int currColor = imageData[0];
-    	for(int currPos = 1 ; currPos < imageData.length ; currPos++) {
-    		if(imageData[currPos] != currColor) {
-    			int dot = (((currColor & 0x0000ff) >> 3) & 0x1f) | (((currColor & 0xff00) >> 5) & 0x7C0) | (((currColor & 0xff0000) >> 8) & 0xf800) | ((currSegLength > 1) ? 0x0020 : 0);
-    			data.add((byte) (dot & 0xff));	data.add((byte) ((dot >> 8) & 0xff));
-    			
-    			if(currSegLength > 1) {
-    				currSegLength --;
-    				data.add((byte) (currSegLength & 0xff));	data.add((byte) ((currSegLength >> 8) & 0x0f));
-    			}
-    			
-    			currSegLength = 1;
-    			currColor = imageData[currPos];
-    		}else {
-    			currSegLength ++;
-    		}
-    	}
-
-    	rawImageData = new byte[data.size()];
-    	int currPos = 0;
-    	for(Byte b : data) {
-    		rawImageData[currPos++] = b;
-    	}
+        rawImageData = new PhotonPreviewEncoder(image).getImageData();
         dataSize = rawImageData.length;
-    }
+	}
 
 	public void save(PhotonOutputStream os, int startAddress) throws Exception {
         os.writeInt(resolutionX);
@@ -153,6 +124,9 @@ public class PhotonFilePreview {
     }
 
     public int[] getImageData() {
+        if (imageData == null && rawImageData != null) {
+            decodeImageData();
+        }
         return imageData;
     }
 
@@ -24,8 +24,7 @@
 
 package photon.file.parts;
 
-import java.io.ByteArrayInputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 public class PhotonFilePrintParameters {
     public float bottomLiftDistance = 5.0f;
@@ -76,8 +75,11 @@ public class PhotonFilePrintParameters {
     }
 
     public PhotonFilePrintParameters(int parametersPos, byte[] file) throws Exception {
-        byte[] data = Arrays.copyOfRange(file, parametersPos, parametersPos + getByteSize());
-        PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(data));
+        this(parametersPos, ByteBuffer.wrap(file));
+    }
+
+    public PhotonFilePrintParameters(int parametersPos, ByteBuffer file) throws Exception {
+        PhotonInputStream ds = new PhotonInputStream(file, parametersPos, getByteSize());
 
         bottomLiftDistance = ds.readFloat();
         bottomLiftSpeed = ds.readFloat();
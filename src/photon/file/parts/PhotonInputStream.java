@@ -32,6 +32,7 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public class PhotonInputStream extends InputStream implements DataInput {
     private DataInputStream dataInputStream;
@@ -44,6 +45,58 @@ public class PhotonInputStream extends InputStream implements DataInput {
         byteBuffer = new byte[8]; // Largest data type is 64-bits (8 bytes)
     }
 
+    /**
+     * Reads length bytes of a file held in a ByteBuffer, starting at address
+     */
+    public PhotonInputStream(ByteBuffer file, int address, int length) {
+        this(new ByteBufferInputStream(slice(file, address, length)));
+    }
+
+    /**
+     * @return a view of length bytes of the file at address, sharing its content
+     */
+    public static ByteBuffer slice(ByteBuffer file, int address, int length) {
+        ByteBuffer view = file.duplicate();
+        view.limit(address + length).position(address);
+        return view.slice();
+    }
+
+    /**
+     * @return a copy of length bytes of the file at address
+     */
+    public static byte[] copy(ByteBuffer file, int address, int length) {
+        byte[] data = new byte[length];
+        slice(file, address, length).get(data);
+        return data;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int readLen) {
+            if (readLen == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(readLen, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
     @Override
     public int read() throws IOException {
         return inputStream.read();
@@ -27,14 +27,14 @@ package photon.file.parts;
 import java.awt.*;
 
 /**
- * by bn on 10/07/2018.
+ * A group of 4-connected island pixels that is not connected to any supported pixel
  */
-public class PhotonLine {
-    public Color color;
-    public int length;
+public class PhotonIsland {
+    public int pixels;
+    public Rectangle bounds;
 
-    public PhotonLine(Color color, int length) {
-        this.color = color;
-        this.length = length;
+    public PhotonIsland(int pixels, Rectangle bounds) {
+        this.pixels = pixels;
+        this.bounds = bounds;
     }
 }
@@ -27,12 +27,15 @@ package photon.file.parts;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
-import java.util.Hashtable;
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * by bn on 02/07/2018.
@@ -50,11 +53,9 @@ public class PhotonLayer {
     private byte[][] iArray;
     private int[] pixels;
     private int[] rowIslands;
+    private List<PhotonIsland> islandComponents = new ArrayList<>();
 
-    private static byte[] emptyRow;
-    private static int[] emptyCol;
-    
-    private static byte[] scratchPad;
+    private static final int REDUCE_BAND = 128;  // minimum number of rows labelled by one task in reduce()
 
     public PhotonLayer(int width, int height) {
         this.width = width;
@@ -63,66 +64,82 @@ public class PhotonLayer {
         iArray = new byte[height][width];
         pixels = new int[height];
         rowIslands = new int[height];
-
-        if (emptyRow == null || emptyRow.length < width) {
-            emptyRow = new byte[width];
-        }
-
-        if (emptyCol == null || emptyCol.length < height) {
-            emptyCol = new int[height];
-        }
-        
-        if (scratchPad == null || scratchPad.length < width * height) {
-        	scratchPad = new byte[width * height];
-        }
     }
 
+    /**
+     * Creates a layer from an image in screen orientation, a layer row is an image column.  Pixels with any alpha are
+     * exposed unless invert is true.
+     */
     public PhotonLayer(BufferedImage data, boolean invert) {
     	width = data.getHeight();
         height = data.getWidth();
         
-        Random r = new Random();
-
         iArray = new byte[height][width];
         pixels = new int[height];
         rowIslands = new int[height];
-
-        if (emptyRow == null || emptyRow.length < width) {
-            emptyRow = new byte[width];
-        }
-
-        if (emptyCol == null || emptyCol.length < height) {
-            emptyCol = new int[height];
-        }
         
-        if (scratchPad == null || scratchPad.length < width * height) {
-        	scratchPad = new byte[width * height];
+        // The image is read row by row into a block of TRANSPOSE_BLOCK rows, which is then written to the layer rows
+        // in pieces of TRANSPOSE_BLOCK pixels
+        byte on = invert ? OFF : CONNECTED;
+        byte off = invert ? CONNECTED : OFF;
+        byte[] block = new byte[TRANSPOSE_BLOCK * height];
+        for (int y0 = 0; y0 < width; y0 += TRANSPOSE_BLOCK) {
+            int rows = Math.min(TRANSPOSE_BLOCK, width - y0);
+            for (int k = 0; k < rows; k++) {
+                readAlphaRow(data, y0 + k, block, k * height);
+            }
+            for (int x = 0; x < height; x++) {
+                byte[] row = iArray[x];
+                int pix = 0;
+                for (int k = 0; k < rows; k++) {
+                    boolean set = block[k * height + x] != 0;
+                    row[y0 + k] = set ? on : off;
+                    if (set) pix++;
+                }
+                pixels[x] += invert ? rows - pix : pix;
+            }
         }
-        
-        
-        for (int y = 0; y < height; y++) {
-        	int pix = 0;
-			for (int x = 0; x < width; x++) {
-				if(invert) {
-					iArray[y][x] = ((data.getRGB(y, x) >> 24) != 0) ? OFF : CONNECTED;
-				}else {
-					iArray[y][x] = ((data.getRGB(y, x) >> 24) != 0) ? CONNECTED : OFF;
-				}
-				if(iArray[y][x] != OFF) pix++;//System.out.println("[" + x + "," + y + "] = " + iArray[y][x]);
-			}
-			pixels[y] = pix;
-			rowIslands[y] = 0;
-		}
 	}
-    
-    
+
+    private static final int TRANSPOSE_BLOCK = 64;
+
+    /**
+     * Reads the alpha of one image row, only zero and not zero are kept
+     */
+    private static void readAlphaRow(BufferedImage data, int y, byte[] dest, int offset) {
+        int w = data.getWidth();
+        WritableRaster alpha = data.getAlphaRaster();
+        if (alpha != null && alpha.getDataBuffer() instanceof DataBufferByte && alpha.getSampleModel() instanceof PixelInterleavedSampleModel) {
+            // straight from the pixel array, e.g. TYPE_4BYTE_ABGR
+            PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) alpha.getSampleModel();
+            byte[] buffer = ((DataBufferByte) alpha.getDataBuffer()).getData();
+            int stride = sm.getPixelStride();
+            int p = sm.getOffset(-alpha.getSampleModelTranslateX(), y - alpha.getSampleModelTranslateY()) + sm.getBandOffsets()[0];
+            for (int x = 0; x < w; x++, p += stride) {
+                dest[offset + x] = buffer[p];
+            }
+        } else {
+            int[] samples = new int[w];
+            if (alpha != null) {
+                alpha.getSamples(0, y, w, 1, 0, samples);
+            } else {
+                data.getRGB(0, y, w, 1, samples, 0, w);
+                for (int x = 0; x < w; x++) {
+                    samples[x] >>>= 24;
+                }
+            }
+            for (int x = 0; x < w; x++) {
+                dest[offset + x] = (byte) (samples[x] != 0 ? 1 : 0);
+            }
+        }
+    }
 
 	public void clear() {
         for (int y = 0; y < height; y++) {
-        	System.arraycopy(emptyRow, 0, iArray[y], 0, width);
+            Arrays.fill(iArray[y], OFF);
         }
-        System.arraycopy(emptyCol, 0, pixels, 0, height);
-        System.arraycopy(emptyCol, 0, rowIslands, 0, height);
+        Arrays.fill(pixels, 0);
+        Arrays.fill(rowIslands, 0);
     }
 
     public void supported(int x, int y) {
@@ -142,6 +159,61 @@ public class PhotonLayer {
         pixels[y]++;
     }
 
+    /**
+     * Marks all set pixels of the bitmap as supported, see supported(int, int)
+     */
+    public void supported(PhotonBitmap bitmap) {
+        classify(bitmap, null, SUPPORTED);
+    }
+
+    /**
+     * Marks all set pixels of the bitmap as connected, see unSupported(int, int)
+     */
+    public void unSupported(PhotonBitmap bitmap) {
+        classify(bitmap, null, CONNECTED);
+    }
+
+    /**
+     * Marks the set pixels of the current layer as supported where the previous layer is set too, and as island where
+     * it is not.  The rows are compared a word of 64 pixels at a time.
+     * @param previous the layer printed before, or null if current is the first
+     */
+    public void supported(PhotonBitmap current, PhotonBitmap previous) {
+        classify(current, previous, SUPPORTED);
+    }
+
+    private void classify(PhotonBitmap current, PhotonBitmap previous, byte type) {
+        int words = current.getWordsPerRow();
+        long[] cur = current.getData();
+        long[] prev = previous != null ? previous.getData() : null;
+        int rows = Math.min(height, current.getHeight());
+        for (int y = 0; y < rows; y++) {
+            byte[] row = iArray[y];
+            for (int w = 0, i = y * words; w < words; w++, i++) {
+                long bits = cur[i];
+                if (bits == 0) continue;
+                long islands = 0;
+                if (prev != null) {
+                    islands = bits & ~prev[i];
+                    bits &= prev[i];
+                }
+                setWord(row, w << 6, bits, type);
+                setWord(row, w << 6, islands, ISLAND);
+                int islandCount = Long.bitCount(islands);
+                pixels[y] += Long.bitCount(bits) + islandCount;
+                rowIslands[y] += islandCount;
+                this.islandCount += islandCount;
+            }
+        }
+    }
+
+    private static void setWord(byte[] row, int x0, long bits, byte type) {
+        while (bits != 0) {
+            row[x0 + Long.numberOfTrailingZeros(bits)] = type;
+            bits &= bits - 1;
+        }
+    }
+
     public void remove(int x, int y, byte type) {
         iArray[y][x] = OFF;
         switch (type) {
@@ -154,92 +226,241 @@ public class PhotonLayer {
     }
 
 
+    /**
+     * Connects all islands that touch a supported or connected pixel, directly or through other island pixels.  The
+     * island pixels are split into horizontal runs, and runs that overlap in neighbouring rows are joined with a
+     * union-find into 4-connected components.  Bands of rows are labelled in parallel and the components crossing the
+     * band borders are merged afterwards.  Every component with a run next to a supported pixel is connected as a
+     * whole, the others are kept as islands and reported by getIslandComponents().
+     */
     public void reduce() {
-        // Double reduce to handle single line connections.
-        for (int i = 0; i < 2; i++) {
-            if (islandCount > 0) {
-                for (int y = 0; y < height; y++) {
-                    if (rowIslands[y] > 0) {
-                        for (int x = 0; x < width; x++) {
-                            if (iArray[y][x] == ISLAND) {
-                                if (connected(x, y)) {
-                                    makeConnected(x, y);
-                                    checkUp(x, y);
-                                    if (rowIslands[y] == 0) {
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+        islandComponents = new ArrayList<>();
+        if (islandCount == 0) return;
+
+        int bandCount = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), height / REDUCE_BAND));
+        Band[] bands = new Band[bandCount];
+        IntStream.range(0, bandCount).parallel()
+                .forEach(b -> bands[b] = label(b * height / bandCount, (b + 1) * height / bandCount));
+
+        // one union-find over the runs of all bands
+        int runCount = 0;
+        for (Band band : bands) {
+            band.offset = runCount;
+            runCount += band.count;
+        }
+        int[] parent = new int[runCount];
+        boolean[] supported = new boolean[runCount];
+        for (Band band : bands) {
+            for (int r = 0; r < band.count; r++) {
+                parent[band.offset + r] = band.offset + band.parent[r];
             }
         }
-    }
+        for (int b = 1; b < bandCount; b++) {
+            merge(parent, bands[b - 1], bands[b]);
+        }
+        for (int r = 0; r < runCount; r++) {
+            parent[r] = find(parent, r);
+        }
+        for (Band band : bands) {
+            for (int r = 0; r < band.count; r++) {
+                if (band.supported[r]) supported[parent[band.offset + r]] = true;
+            }
+        }
+
+        Arrays.stream(bands).parallel().forEach(band -> connect(band, parent, supported));
 
-    private void checkUp(int x, int y) {
-        if (y > 0 && rowIslands[y - 1] > 0 && iArray[y - 1][x] == ISLAND) {
-            makeConnected(x, y - 1);
-            checkUp(x, y - 1);
+        // the components that are left are real islands
+        islandCount = 0;
+        for (int y = 0; y < height; y++) {
+            islandCount += rowIslands[y];
         }
-        if (x > 0 && rowIslands[y] > 0 && iArray[y][x - 1] == ISLAND) {
-            makeConnected(x - 1, y);
-            checkBackUp(x - 1, y);
+        PhotonIsland[] islands = new PhotonIsland[runCount];
+        for (Band band : bands) {
+            for (int r = 0; r < band.count; r++) {
+                int root = parent[band.offset + r];
+                if (supported[root]) continue;
+                int x0 = band.x0[r], x1 = band.x1[r], y = band.y[r];
+                PhotonIsland island = islands[root];
+                if (island == null) {
+                    island = islands[root] = new PhotonIsland(0, new Rectangle(x0, y, x1 - x0, 1));
+                    islandComponents.add(island);
+                } else {
+                    island.bounds.add(new Rectangle(x0, y, x1 - x0, 1));
+                }
+                island.pixels += x1 - x0;
+            }
         }
-        if (x < (width-1) && rowIslands[y] > 0 && iArray[y][x + 1] == ISLAND) {
-            makeConnected(x + 1, y);
-            checkFrontUp(x + 1, y);
+    }
+
+    /**
+     * @return the islands left by the last reduce(), in the order of their first pixel
+     */
+    public List<PhotonIsland> getIslandComponents() {
+        return islandComponents;
+    }
+
+    /**
+     * Finds the island runs of rows y0 to y1 (exclusive) and joins the ones overlapping in neighbouring rows
+     */
+    private Band label(int y0, int y1) {
+        Band band = new Band(y0, y1);
+        int prevStart = 0;
+        int prevEnd = 0;
+        for (int y = y0; y < y1; y++) {
+            int rowStart = band.count;
+            band.rowStart[y - y0] = rowStart;
+            if (rowIslands[y] > 0) {
+                byte[] row = iArray[y];
+                int x = 0;
+                while (x < width) {
+                    if (row[x] != ISLAND) {
+                        x++;
+                        continue;
+                    }
+                    int x0 = x;
+                    while (x < width && row[x] == ISLAND) x++;
+                    int r = band.add(y, x0, x, touchesSupport(y, x0, x));
+                    // runs of the previous row that end before this one can not overlap the next ones either
+                    while (prevStart < prevEnd && band.x1[prevStart] <= x0) prevStart++;
+                    for (int p = prevStart; p < prevEnd && band.x0[p] < x; p++) {
+                        union(band.parent, p, r);
+                    }
+                }
+            }
+            prevStart = rowStart;
+            prevEnd = band.count;
         }
+        band.rowStart[y1 - y0] = band.count;
+        return band;
     }
 
-    private void checkBackUp(int x, int y) {
-        if (y > 0 && rowIslands[y - 1] > 0 && iArray[y - 1][x] == ISLAND) {
-            makeConnected(x, y - 1);
-            checkBackUp(x, y - 1);
+    /**
+     * @return true if a pixel next to the run x0 to x1 (exclusive) of row y is supported or connected
+     */
+    private boolean touchesSupport(int y, int x0, int x1) {
+        byte[] row = iArray[y];
+        if (x0 > 0 && (row[x0 - 1] & 0x01) == SUPPORTED) return true;
+        if (x1 < width && (row[x1] & 0x01) == SUPPORTED) return true;
+        if (y > 0 && anySupported(iArray[y - 1], x0, x1)) return true;
+        return y < height - 1 && anySupported(iArray[y + 1], x0, x1);
+    }
+
+    private static boolean anySupported(byte[] row, int x0, int x1) {
+        for (int x = x0; x < x1; x++) {
+            if ((row[x] & 0x01) == SUPPORTED) return true;
         }
-        if (x > 0 && rowIslands[y] > 0 && iArray[y][x - 1] == ISLAND) {
-            makeConnected(x - 1, y);
-            checkBackUp(x - 1, y);
+        return false;
+    }
+
+    /**
+     * Joins the runs in the last row of a band with the overlapping runs in the first row of the next band
+     */
+    private static void merge(int[] parent, Band above, Band below) {
+        int a = above.rowStart[above.rowStart.length - 2], aEnd = above.count;
+        int b = 0, bEnd = below.rowStart[1];
+        while (a < aEnd && b < bEnd) {
+            if (above.x0[a] < below.x1[b] && below.x0[b] < above.x1[a]) {
+                union(parent, above.offset + a, below.offset + b);
+            }
+            if (above.x1[a] < below.x1[b]) {
+                a++;
+            } else {
+                b++;
+            }
         }
     }
 
-    private void checkFrontUp(int x, int y) {
-        if (y > 0 && rowIslands[y - 1] > 0 && iArray[y - 1][x] == ISLAND) {
-            makeConnected(x, y - 1);
-            checkFrontUp(x, y - 1);
+    /**
+     * Turns the runs of a band whose component touches a supported pixel into connected pixels
+     */
+    private void connect(Band band, int[] parent, boolean[] supported) {
+        for (int r = 0; r < band.count; r++) {
+            if (supported[parent[band.offset + r]]) {
+                int y = band.y[r];
+                Arrays.fill(iArray[y], band.x0[r], band.x1[r], CONNECTED);
+                rowIslands[y] -= band.x1[r] - band.x0[r];
+            }
         }
-        if (x < (width-1) && rowIslands[y] > 0 && iArray[y][x + 1] == ISLAND) {
-            makeConnected(x + 1, y);
-            checkFrontUp(x + 1, y);
+    }
+
+    private static int find(int[] parent, int r) {
+        while (parent[r] != r) {
+            parent[r] = parent[parent[r]];
+            r = parent[r];
         }
+        return r;
     }
 
-    private void makeConnected(int x, int y) {
-        iArray[y][x] = CONNECTED;
-        rowIslands[y]--;
-        islandCount--;
+    private static void union(int[] parent, int a, int b) {
+        a = find(parent, a);
+        b = find(parent, b);
+        if (a < b) {
+            parent[b] = a;
+        } else if (b < a) {
+            parent[a] = b;
+        }
     }
 
-    private boolean connected(int x, int y) {
-        return x > 0 && (iArray[y][x - 1] & 0x01) == SUPPORTED
-                || x < (width - 1) && (iArray[y][x + 1] & 0x01) == SUPPORTED
-                || y > 0 && (iArray[y - 1][x] & 0x01) == SUPPORTED
-                || (y < (height - 1) && (iArray[y + 1][x] & 0x01) == SUPPORTED);
+    /**
+     * Island runs of a band of rows, with a union-find over the runs that is local to the band
+     */
+    private static final class Band {
+        final int[] rowStart;   // first run of every row of the band, and count at the end
+        int[] y = new int[64];
+        int[] x0 = new int[64];
+        int[] x1 = new int[64];
+        int[] parent = new int[64];
+        boolean[] supported = new boolean[64];
+        int count;
+        int offset;             // index of the first run in the union-find of all bands
+
+        Band(int y0, int y1) {
+            rowStart = new int[y1 - y0 + 1];
+        }
+
+        int add(int row, int from, int to, boolean touchesSupport) {
+            if (count == y.length) {
+                int n = count * 2;
+                y = Arrays.copyOf(y, n);
+                x0 = Arrays.copyOf(x0, n);
+                x1 = Arrays.copyOf(x1, n);
+                parent = Arrays.copyOf(parent, n);
+                supported = Arrays.copyOf(supported, n);
+            }
+            y[count] = row;
+            x0[count] = from;
+            x1[count] = to;
+            parent[count] = count;
+            supported[count] = touchesSupport;
+            return count++;
+        }
     }
 
-    public int setIslands(ArrayList<BitSet> islandRows) {
+    /**
+     * @return number of island pixels
+     */
+    public int getIslandCount() {
         int islands = 0;
         for (int y = 0; y < height; y++) {
-            BitSet bitSet = new BitSet();
+            islands += rowIslands[y];
+        }
+        return islands;
+    }
+
+    /**
+     * @return the island pixels, or null if there are none
+     */
+    public PhotonBitmap getIslands() {
+        if (getIslandCount() == 0) return null;
+        PhotonBitmap islands = new PhotonBitmap(width, height);
+        for (int y = 0; y < height; y++) {
             if (rowIslands[y] > 0) {
                 for (int x = 0; x < width; x++) {
                     if (iArray[y][x] == ISLAND) {
-                        bitSet.set(x);
+                        islands.set(x, y);
                     }
                 }
             }
-            islandRows.add(bitSet);
-            islands += rowIslands[y];
         }
         return islands;
     }
@@ -251,10 +472,10 @@ public class PhotonLayer {
     }
 
     public byte[] packLayerImage() {
-    	int ptr = 0;
+        RleOutput out = new RleOutput(height * 2);
         for (int y = 0; y < height; y++) {
             if (pixels[y] == 0) {
-                ptr = add(ptr, OFF, width);
+                add(out, OFF, width);
             } else {
                 byte current = OFF;
                 int length = 0;
@@ -262,7 +483,7 @@ public class PhotonLayer {
                     byte next = iArray[y][x];
                     if (next != current) {
                         if (length > 0) {
-                            ptr = add(ptr, current, length);
+                            add(out, current, length);
                         }
                         current = next;
                         length = 1;
@@ -271,13 +492,11 @@ public class PhotonLayer {
                     }
                 }
                 if (length > 0) {
-                    ptr = add(ptr, current, length);
+                    add(out, current, length);
                 }
             }
         }
-        byte[] img = new byte[ptr];
-        System.arraycopy(scratchPad, 0, img, 0, ptr);
-        return img;
+        return out.toArray();
     }
 
     public void unpackLayerImage(byte[] packedLayerImage) {
@@ -324,61 +543,49 @@ public class PhotonLayer {
     }
     
     
-    private int add(int ptr, byte current, int length) {
+    private static void add(RleOutput out, byte current, int length) {
         if (length < 32) {
-            scratchPad[ptr++] = (byte) ((current << 5) | (length & 0x1f));
+            out.put((byte) ((current << 5) | (length & 0x1f)));
         } else {
-            scratchPad[ptr++] = (byte) (0x80 | (current << 5) | (length >> 8 & 0x00FF));
-            scratchPad[ptr++] = (byte) (length & 0x00FF);
+            out.put((byte) (0x80 | (current << 5) | (length >> 8 & 0x00FF)));
+            out.put((byte) (length & 0x00FF));
         }
-        return ptr;
     }
 
     /**
-     * Get a layer image for drawing.
-     * <p/>
-     * This will decode the RLE packed layer information and return a list of rows, with color and length information
-     *
-     * @param packedLayerImage The packed layer image information
-     * @param width            The width of the current layer, used to change rows
-     * @return A list with the
+     * Decodes packLayerImage() data to one color code (OFF, SUPPORTED, ISLAND or CONNECTED) per pixel, every run is
+     * filled with Arrays.fill.  Only every step-th row and column is kept, so the target holds (width + step - 1) / step
+     * codes per row.  The target has to be cleared to OFF before.
+     * @param mirrored true to mirror the rows
      */
-    public static ArrayList<PhotonRow> getRows(byte[] packedLayerImage, int width, boolean isCalculated) {
-        Hashtable<Byte, Color> colors = new Hashtable<>();
-        colors.put(OFF, Color.black);
-        if (isCalculated) {
-            colors.put(SUPPORTED, Color.decode("#008800"));
-        } else {
-            colors.put(SUPPORTED, Color.decode("#000088"));
-        }
-        colors.put(CONNECTED, Color.decode("#FFFF00"));
-        colors.put(ISLAND, Color.decode("#FF0000"));
-        ArrayList<PhotonRow> rows = new ArrayList<>();
-        int resolutionX = width - 1;
-        PhotonRow currentRow = new PhotonRow();
-        rows.add(currentRow);
+    public static void unpackLayerImage(byte[] packedLayerImage, int width, int height, int step, boolean mirrored, byte[] target) {
+        int targetWidth = (width + step - 1) / step;
         int x = 0;
-        if (packedLayerImage!=null) { // when user tries to show a layer before its calculated
-            for (int i = 0; i < packedLayerImage.length; i++) {
-                byte rle = packedLayerImage[i];
-                byte colorCode = (byte) ((rle & 0x60) >> 5);
-                Color color = colors.get(colorCode);
-                boolean extended = (rle & 0x80) == 0x80;
-                int length = rle & 0x1F;
-                if (extended) {
-                    length = (length << 8) | (packedLayerImage[++i] & 0x00ff);
+        int y = 0;
+        for (int i = 0; i < packedLayerImage.length && y < height; i++) {
+            byte rle = packedLayerImage[i];
+            byte colorCode = (byte) ((rle & 0x60) >> 5);
+            int length = rle & 0x1F;
+            if ((rle & 0x80) == 0x80) {
+                length = (length << 8) | (packedLayerImage[++i] & 0x00ff);
+            }
+            while (length > 0 && y < height) {
+                int n = Math.min(length, width - x);
+                if (colorCode != OFF && y % step == 0) {
+                    int from = mirrored ? width - x - n : x;
+                    int first = (from + step - 1) / step;
+                    int last = (from + n + step - 1) / step;
+                    int row = (y / step) * targetWidth;
+                    Arrays.fill(target, row + first, row + last, colorCode);
                 }
-                currentRow.lines.add(new PhotonLine(color, length));
-                x += length;
-
-                if (x >= resolutionX) {
-                    currentRow = new PhotonRow();
-                    rows.add(currentRow);
+                x += n;
+                length -= n;
+                if (x == width) {
                     x = 0;
+                    y++;
                 }
             }
         }
-        return rows;
     }
 
     public int removeIslands() {
@@ -398,51 +605,57 @@ public class PhotonLayer {
         return count;
     }
 
+    /**
+     * Turns OFF pixels next to islands into island pixels where the neighbourhood is mostly filled, so thin gaps in
+     * islands are closed
+     * @return number of pixels added
+     */
     public int fixlayer() {
-        PhotonMatix photonMatix = new PhotonMatix();
-        ArrayList<PhotonDot> dots = new ArrayList<>();
-        if (islandCount > 0) {
-            for (int y = 0; y < height; y++) {
-                if (rowIslands[y] > 0) {
-                    for (int x = 0; x < width; x++) {
-                        if (iArray[y][x] == ISLAND) {
-                            photonMatix.clear();
-                            int blanks = photonMatix.set(x, y, iArray, width, height);
-                            if (blanks>0) { // one or more neighbour pixels are OFF
-                                photonMatix.calc();
-                                photonMatix.level();
-                                photonMatix.calc();
-
-                                for(int ry=0; ry<3; ry++) {
-                                    for (int rx = 0; rx < 3; rx++) {
-                                        int iy = y-1+ry;
-                                        int ix = x-1+rx;
-                                        if (iArray[iy][ix] == OFF) {
-                                            if (photonMatix.calcMatrix[1+ry][1+rx]>3) {
-                                                dots.add(new PhotonDot(ix, iy));
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
+        if (islandCount == 0) {
+            return 0;
+        }
+        PhotonMatix photonMatix = new PhotonMatix(iArray, width, height);
+        // pixels to add, as y * width + x, they are only added once all pixels are checked
+        int[] dots = new int[64];
+        int dotCount = 0;
+        for (int y = 0; y < height; y++) {
+            if (rowIslands[y] == 0 && (y == 0 || rowIslands[y - 1] == 0) && (y == height - 1 || rowIslands[y + 1] == 0)) {
+                continue;
+            }
+            byte[] row = iArray[y];
+            for (int x = 0; x < width; x++) {
+                if (row[x] == OFF && nextToIsland(x, y) && photonMatix.fills(x, y)) {
+                    if (dotCount == dots.length) {
+                        dots = Arrays.copyOf(dots, dotCount * 2);
                     }
+                    dots[dotCount++] = y * width + x;
                 }
             }
         }
-        for(PhotonDot dot : dots) {
-            island(dot.x, dot.y);
+        for (int i = 0; i < dotCount; i++) {
+            island(dots[i] % width, dots[i] / width);
         }
-        return dots.size();
+        return dotCount;
+    }
+
+    private boolean nextToIsland(int x, int y) {
+        for (int iy = Math.max(0, y - 1); iy <= Math.min(height - 1, y + 1); iy++) {
+            if (rowIslands[iy] > 0) {
+                for (int ix = Math.max(0, x - 1); ix <= Math.min(width - 1, x + 1); ix++) {
+                    if (iArray[iy][ix] == ISLAND) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
     }
 
     public byte[] packImageData() {
-    	
-    	int ptr = 0;
-    
+        RleOutput out = new RleOutput(height * ((width + 124) / 125));
         for (int y = 0; y < height; y++) {
             if (pixels[y] == 0) {
-                ptr = addPhotonRLE(ptr, true, width);
+                addPhotonRLE(out, true, width);
             } else {
                 byte current = OFF;
                 int length = 0;
@@ -450,7 +663,7 @@ public class PhotonLayer {
                     byte next = iArray[y][x];
                     if (next != current) {
                         if (length > 0) {
-                            ptr = addPhotonRLE(ptr, current==OFF, length);
+                            addPhotonRLE(out, current==OFF, length);
                         }
                         current = next;
                         length = 1;
@@ -459,24 +672,42 @@ public class PhotonLayer {
                     }
                 }
                 if (length > 0) {
-                    ptr = addPhotonRLE(ptr, current==OFF, length);
+                    addPhotonRLE(out, current==OFF, length);
                 }
             }
         }
-        byte[] img = new byte[ptr];
-        System.arraycopy(scratchPad, 0, img, 0, ptr);
-        return img;
+        return out.toArray();
     }
 
-    private int addPhotonRLE(int ptr, boolean off, int length) {
-    	
+    private static void addPhotonRLE(RleOutput out, boolean off, int length) {
         while (length > 0) {
             int lineLength = length < 125 ? length : 125; // max storage length of 0x7D (125) ?? Why not 127?
-            scratchPad[ptr++] = (byte) ((off ? 0x00: 0x80) | (lineLength & 0x7f));
+            out.put((byte) ((off ? 0x00: 0x80) | (lineLength & 0x7f)));
             length -= lineLength;
         }
-        
-        return ptr;
+    }
+
+    /**
+     * Growable output of one pack call.  Every call has its own, so layers can be packed on several threads at once.
+     */
+    private static final class RleOutput {
+        private byte[] data;
+        private int size;
+
+        RleOutput(int capacity) {
+            data = new byte[Math.max(64, capacity)];
+        }
+
+        void put(byte b) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = b;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
     }
 
     public byte get(int x, int y) {
@@ -26,80 +26,91 @@ package photon.file.parts;
 
 /**
  * by bn on 14/07/2018.
+ *
+ * Decides which OFF pixels around islands fixlayer() fills.  A neighbour is weighted 4 if it is supported or
+ * connected, 1 if it is an island and 0 if it is OFF or outside the layer.  An OFF pixel next to an island is filled if
+ * its 4 neighbours weigh 4 or more.  If they do not, OFF neighbours that would be filled themselves add a quarter of
+ * their own weight, but only those within one pixel of the island, and the pixel is filled if that brings it to 4.
  */
 public class PhotonMatix {
+    private final byte[][] iArray;
+    private final int width;
+    private final int height;
 
-    public Integer[][] calcMatrix = new Integer[5][5];
-
-    public void clear() {
-        for (int y = 0; y < 5; y++) {
-            for (int x = 0; x < 5; x++) {
-                calcMatrix[y][x] = 0;
-            }
-        }
+    public PhotonMatix(byte[][] iArray, int width, int height) {
+        this.iArray = iArray;
+        this.width = width;
+        this.height = height;
     }
 
-
-    public int set(int x, int y, byte[][] iArray, int width, int height) {
-        int blanks = 0;
-        int x0 = x - 2;
-        int y0 = y - 2;
-        for (int yi = 0; yi < 5; yi++) {
-            for (int xi = 0; xi < 5; xi++) {
-                int y2 = y0 + yi;
-                int x2 = x0 + xi;
-                if (y2 >= 0 && y2 < height && x2 >= 0 && x2 < width) {
-                    switch (iArray[y2][x2]) {
-                        case PhotonLayer.SUPPORTED:
-                        case PhotonLayer.CONNECTED:
-                            calcMatrix[yi][xi] = 16;
-                            break;
-
-                        case PhotonLayer.ISLAND:
-                            calcMatrix[yi][xi] = 4;
-                            break;
-
-                        case PhotonLayer.OFF:
-                            if (yi > 0 && yi < 4 && xi > 0 && xi < 4) {
-                                blanks++;
-                            }
-                            break;
+    /**
+     * @return true if the OFF pixel x, y is filled, it must have an island in its 8 neighbours
+     */
+    public boolean fills(int x, int y) {
+        int level = level(x, y);
+        if (level >= 4) {
+            return true;
+        }
+        // OFF 4-neighbours that reach 4 themselves, left, right, up and down
+        int left = filledLevel(x - 1, y);
+        int right = filledLevel(x + 1, y);
+        int up = filledLevel(x, y - 1);
+        int down = filledLevel(x, y + 1);
+        if (level + left + right + up + down < 4) {
+            return false;
+        }
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (type(x + dx, y + dy) == PhotonLayer.ISLAND) {
+                    // the neighbours within one pixel of the island at x + dx, y + dy
+                    int sum = level;
+                    if (dx <= 0) sum += left;
+                    if (dx >= 0) sum += right;
+                    if (dy <= 0) sum += up;
+                    if (dy >= 0) sum += down;
+                    if (sum >= 4) {
+                        return true;
                     }
                 }
             }
         }
-        return blanks;
+        return false;
     }
 
+    /**
+     * @return weight of the 4 neighbours of a pixel
+     */
+    private int level(int x, int y) {
+        return weight(x - 1, y) + weight(x + 1, y) + weight(x, y - 1) + weight(x, y + 1);
+    }
 
-    public void calc() {
-        Integer[][] temp = new Integer[3][3];
-        for (int yi = 0; yi < 3; yi++) {
-            for (int xi = 0; xi < 3; xi++) {
-                if (calcMatrix[yi+1][xi+1]==PhotonLayer.OFF) {
-                    temp[yi][xi] = calc(xi+1, yi+1);
-                }
-            }
-        }
-        for (int yi = 0; yi < 3; yi++) {
-            for (int xi = 0; xi < 3; xi++) {
-                if (calcMatrix[yi+1][xi+1]==PhotonLayer.OFF) {
-                    calcMatrix[yi+1][xi+1] = temp[yi][xi];
-                }
-            }
+    /**
+     * @return a quarter of the level of an OFF pixel inside the layer that reaches 4, otherwise 0
+     */
+    private int filledLevel(int x, int y) {
+        if (type(x, y) != PhotonLayer.OFF || x < 0 || x >= width || y < 0 || y >= height) {
+            return 0;
         }
+        int level = level(x, y);
+        return level >= 4 ? level / 4 : 0;
     }
 
-    private int calc(int x, int y) {
-        return  (calcMatrix[y-1][x] / 4) + (calcMatrix[y][x-1] / 4) + (calcMatrix[y][x+1] / 4) + (calcMatrix[y+1][x] / 4);
-    }
+    private int weight(int x, int y) {
+        switch (type(x, y)) {
+            case PhotonLayer.SUPPORTED:
+            case PhotonLayer.CONNECTED:
+                return 4;
 
-    public void level() {
-        for (int yi = 0; yi < 5; yi++) {
-            for (int xi = 0; xi < 5; xi++) {
-                if (calcMatrix[yi][xi]<4) calcMatrix[yi][xi] = 0;
-            }
+            case PhotonLayer.ISLAND:
+                return 1;
+
+            default:
+                return 0;
         }
     }
 
+    private byte type(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height ? iArray[y][x] : PhotonLayer.OFF;
+    }
+
 }
@@ -24,44 +24,98 @@
 
 package photon.file.parts;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 
 
 /**
  * by bn on 06/07/2018.
+ * <p/>
+ * Little endian writer that collects the file in memory and writes it in one go.  Numbers are put into little endian
+ * ByteBuffers, and large byte arrays like layer and preview data are queued as they are, without copying, so they must
+ * not be changed before flush() or close().  flush() passes all queued buffers to the channel in gathering writes.
  */
 public class PhotonOutputStream extends OutputStream implements DataOutput {
-    private OutputStream outputStream;
-    private DataOutputStream dataOutputStream;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int WRAP_SIZE = 1024;  // arrays of at least this many bytes are queued instead of copied
+
+    private final WritableByteChannel channel;
+    private final ArrayList<ByteBuffer> pending = new ArrayList<>();
+    private ByteBuffer buffer;
 
 
     public PhotonOutputStream(OutputStream outputStream) {
-        this.outputStream = outputStream;
-        dataOutputStream = new DataOutputStream(outputStream);
+        this(Channels.newChannel(outputStream));
+    }
+
+    public PhotonOutputStream(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer = newBuffer(BUFFER_SIZE);
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Makes sure the current buffer has room for n more bytes
+     */
+    private ByteBuffer room(int n) {
+        if (buffer.remaining() < n) {
+            seal();
+            buffer = newBuffer(Math.max(BUFFER_SIZE, n));
+        }
+        return buffer;
+    }
+
+    /**
+     * Queues the filled part of the current buffer, further bytes go to a new part of it
+     */
+    private void seal() {
+        if (buffer.position() > 0) {
+            ByteBuffer filled = buffer.duplicate();
+            filled.flip();
+            pending.add(filled);
+            buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        outputStream.write(b, off, len);
+        if (len >= WRAP_SIZE) {
+            seal();
+            pending.add(ByteBuffer.wrap(b, off, len));
+        } else {
+            room(len).put(b, off, len);
+        }
     }
 
     @Override
     public void writeBoolean(boolean v) throws IOException {
-        dataOutputStream.writeBoolean(v);
+        room(1).put((byte) (v ? 1 : 0));
     }
 
     @Override
     public void writeByte(int v) throws IOException {
-        dataOutputStream.writeByte(v);
+        room(1).put((byte) v);
     }
 
     @Deprecated
     @Override
     public void writeBytes(String s) throws IOException {
-        dataOutputStream.writeBytes(s);
+        ByteBuffer b = room(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            b.put((byte) s.charAt(i));
+        }
     }
 
     @Override
@@ -78,12 +132,12 @@ public class PhotonOutputStream extends OutputStream implements DataOutput {
 
     @Override
     public void writeDouble(double v) throws IOException {
-        writeLong(Double.doubleToLongBits(v));
+        room(8).putDouble(v);
     }
 
     @Override
     public void writeFloat(float v) throws IOException {
-        writeInt(Float.floatToIntBits(v));
+        room(4).putFloat(v);
     }
 
     @Override
@@ -93,41 +147,59 @@ public class PhotonOutputStream extends OutputStream implements DataOutput {
 
     @Override
     public void writeInt(int v) throws IOException {
-        outputStream.write(0xFF & v);
-        outputStream.write(0xFF & (v >> 8));
-        outputStream.write(0xFF & (v >> 16));
-        outputStream.write(0xFF & (v >> 24));
+        room(4).putInt(v);
     }
 
     @Override
     public void writeLong(long v) throws IOException {
-        byte[] bytes = longToBytes(Long.reverseBytes(v));
-        write(bytes, 0, bytes.length);
-    }
-
-    private byte[] longToBytes(long l) {
-        byte[] result = new byte[8];
-        for (int i = 7; i >= 0; i--) {
-            result[i] = (byte)(l & 0xFF);
-            l >>= 8;
-        }
-        return result;
+        room(8).putLong(v);
     }
 
     @Override
     public void writeShort(int v) throws IOException {
-        outputStream.write(0xFF & v);
-        outputStream.write(0xFF & (v >> 8));
+        room(2).putShort((short) v);
     }
 
     @Override
     public void writeUTF(String str) throws IOException {
-        dataOutputStream.writeUTF(str);
+        ByteArrayOutputStream utf = new ByteArrayOutputStream(str.length() + 2);
+        new DataOutputStream(utf).writeUTF(str);
+        byte[] bytes = utf.toByteArray();
+        room(bytes.length).put(bytes);
+    }
+
+    /**
+     * Writes everything queued so far to the channel
+     */
+    @Override
+    public void flush() throws IOException {
+        seal();
+        ByteBuffer[] buffers = pending.toArray(new ByteBuffer[0]);
+        pending.clear();
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gathering = (GatheringByteChannel) channel;
+            for (int first = 0; first < buffers.length; ) {
+                gathering.write(buffers, first, buffers.length - first);
+                while (first < buffers.length && !buffers[first].hasRemaining()) {
+                    first++;
+                }
+            }
+        } else {
+            for (ByteBuffer b : buffers) {
+                while (b.hasRemaining()) {
+                    channel.write(b);
+                }
+            }
+        }
     }
 
     @Override
     public void close() throws IOException {
-        outputStream.close();
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
     }
 
 
@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Encodes a preview image to the preview RLE data, 16 bit little endian RGB15 pixels (red 0xF800, green 0x07C0, blue
+ * 0x001F) where 0x0020 marks a run, followed by 16 bits holding the run length - 1 in the low 12 bits.  Runs longer
+ * than 4096 pixels are split.  Int and byte interleaved RGB images are read straight from their DataBuffer, other
+ * images a row at a time through getRGB.
+ */
+public class PhotonPreviewEncoder {
+    private static final int MAX_RUN = 0x1000;
+
+    private byte[] imageData;
+    private int imageSize = 0;
+
+    private int runDot = -1;
+    private int runLength = 0;
+
+    public PhotonPreviewEncoder(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        imageData = new byte[Math.max(64, width * height / 8)];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            readRow(image, y, row);
+            for (int x = 0; x < width; x++) {
+                int color = row[x];
+                add(((color & 0x0000ff) >> 3) | ((color & 0x00f800) >> 5) | ((color & 0xf80000) >> 8));
+            }
+        }
+        flush();
+    }
+
+    private void add(int dot) {
+        if (dot != runDot) {
+            flush();
+            runDot = dot;
+        }
+        runLength++;
+    }
+
+    private void flush() {
+        while (runLength > 0) {
+            int length = Math.min(runLength, MAX_RUN);
+            if (imageSize + 4 > imageData.length) {
+                imageData = Arrays.copyOf(imageData, imageData.length * 2);
+            }
+            int dot = runDot | (length > 1 ? 0x0020 : 0);
+            imageData[imageSize++] = (byte) dot;
+            imageData[imageSize++] = (byte) (dot >> 8);
+            if (length > 1) {
+                imageData[imageSize++] = (byte) (length - 1);
+                imageData[imageSize++] = (byte) ((length - 1) >> 8 & 0x0f);
+            }
+            runLength -= length;
+        }
+    }
+
+    /**
+     * Reads one row of the image as 0xRRGGBB
+     */
+    private static void readRow(BufferedImage image, int y, int[] row) {
+        int width = row.length;
+        Raster raster = image.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        ColorModel cm = image.getColorModel();
+        int rx = -raster.getSampleModelTranslateX();
+        int ry = y - raster.getSampleModelTranslateY();
+        boolean rgb = cm.getColorSpace().isCS_sRGB() && !cm.isAlphaPremultiplied();
+
+        if (rgb && db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel && cm instanceof DirectColorModel
+                && ((DirectColorModel) cm).getRedMask() == 0xff0000 && ((DirectColorModel) cm).getGreenMask() == 0x00ff00
+                && ((DirectColorModel) cm).getBlueMask() == 0x0000ff) {
+            SinglePixelPackedSampleModel packed = (SinglePixelPackedSampleModel) sm;
+            int offset = db.getOffset() + ry * packed.getScanlineStride() + rx;
+            System.arraycopy(((DataBufferInt) db).getData(), offset, row, 0, width);
+            return;
+        }
+        if (rgb && db instanceof DataBufferByte && sm instanceof PixelInterleavedSampleModel && cm instanceof ComponentColorModel
+                && sm.getNumBands() >= 3 && sm.getSampleSize(0) == 8) {
+            PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel) sm;
+            byte[] data = ((DataBufferByte) db).getData();
+            int[] bands = interleaved.getBandOffsets();
+            int stride = interleaved.getPixelStride();
+            int offset = db.getOffset() + ry * interleaved.getScanlineStride() + rx * stride;
+            for (int x = 0; x < width; x++, offset += stride) {
+                row[x] = (data[offset + bands[0]] & 0xff) << 16 | (data[offset + bands[1]] & 0xff) << 8 | (data[offset + bands[2]] & 0xff);
+            }
+            return;
+        }
+        image.getRGB(0, y, width, 1, row, 0, width);
+    }
+
+    /**
+     * @return the RLE data as stored in the photon file
+     */
+    public byte[] getImageData() {
+        return Arrays.copyOf(imageData, imageSize);
+    }
+
+    public int getImageSize() {
+        return imageSize;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a layer row by row from its exposed spans, without a PhotonLayer.  It writes the same two RLE streams as
+ * PhotonLayer.packImageData() (file data, runs of up to 0x7D pixels with 0x80 as the exposed bit) and
+ * PhotonLayer.packLayerImage() (display data, a 2 bit color and a 5 or 13 bit length).
+ */
+public class PhotonRleEncoder {
+    private final int width;
+    private byte[] imageData = new byte[64 * 1024];
+    private int imageSize = 0;
+    private byte[] packedImage = new byte[16 * 1024];
+    private int packedSize = 0;
+    private int rows = 0;
+    private int pixels = 0;
+
+    private boolean runOn;
+    private int runLength = 0;
+
+    /**
+     * @param width length of a layer row (PhotonLayer width)
+     */
+    public PhotonRleEncoder(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Adds the next row.
+     * @param spans sorted, not overlapping pairs of start (inclusive) and end (exclusive) pixel
+     * @param count number of ints used in spans, twice the number of spans
+     * @param invert true if the pixels outside the spans are exposed instead of the ones inside
+     */
+    public void addRow(int[] spans, int count, boolean invert) {
+        int x = 0;
+        for (int i = 0; i < count; i += 2) {
+            run(invert, spans[i] - x);
+            run(!invert, spans[i + 1] - spans[i]);
+            x = spans[i + 1];
+        }
+        run(invert, width - x);
+        flush();
+        rows++;
+    }
+
+    private void run(boolean on, int length) {
+        if (length <= 0) return;
+        if (runLength > 0 && runOn != on) {
+            flush();
+        }
+        runOn = on;
+        runLength += length;
+    }
+
+    private void flush() {
+        if (runLength == 0) return;
+        int length = runLength;
+        if (runOn) pixels += length;
+
+        // file data, the same as PhotonLayer.addPhotonRLE()
+        if (imageSize + length / 125 + 1 > imageData.length) {
+            imageData = Arrays.copyOf(imageData, Math.max(imageData.length * 2, imageSize + length / 125 + 1));
+        }
+        while (length > 0) {
+            int lineLength = length < 125 ? length : 125;
+            imageData[imageSize++] = (byte) ((runOn ? 0x80 : 0x00) | (lineLength & 0x7f));
+            length -= lineLength;
+        }
+
+        // display data, the same as PhotonLayer.add()
+        if (packedSize + 2 > packedImage.length) {
+            packedImage = Arrays.copyOf(packedImage, packedImage.length * 2);
+        }
+        byte color = runOn ? PhotonLayer.CONNECTED : PhotonLayer.OFF;
+        if (runLength < 32) {
+            packedImage[packedSize++] = (byte) ((color << 5) | (runLength & 0x1f));
+        } else {
+            packedImage[packedSize++] = (byte) (0x80 | (color << 5) | (runLength >> 8 & 0x00FF));
+            packedImage[packedSize++] = (byte) (runLength & 0x00FF);
+        }
+        runLength = 0;
+    }
+
+    /**
+     * @return the RLE data as stored in the photon file
+     */
+    public byte[] getImageData() {
+        return Arrays.copyOf(imageData, imageSize);
+    }
+
+    /**
+     * @return the RLE data used to display the layer
+     */
+    public byte[] getPackedLayerImage() {
+        return Arrays.copyOf(packedImage, packedSize);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return number of exposed pixels
+     */
+    public int getPixels() {
+        return pixels;
+    }
+}
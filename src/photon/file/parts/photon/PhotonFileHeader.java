@@ -27,8 +27,8 @@ package photon.file.parts.photon;
 import photon.file.parts.*;
 import photon.file.ui.Text;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import g2c.printers.Printer;
@@ -121,7 +121,11 @@ public class PhotonFileHeader implements IFileHeader {
     }
 
     public PhotonFileHeader(byte[] file) throws Exception {
-        PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(file));
+        this(ByteBuffer.wrap(file));
+    }
+
+    public PhotonFileHeader(ByteBuffer file) throws Exception {
+        PhotonInputStream ds = new PhotonInputStream(file, 0, file.limit());
 
         header1 = ds.readInt();
         version = ds.readInt();
@@ -401,6 +405,10 @@ public class PhotonFileHeader implements IFileHeader {
     }
 
     public void readParameters(byte[] file) throws Exception {
+        readParameters(ByteBuffer.wrap(file));
+    }
+
+    public void readParameters(ByteBuffer file) throws Exception {
         photonFilePrintParameters = new PhotonFilePrintParameters(getPrintParametersOffsetAddress(), file);
         photonFileMachineInfo = new PhotonFileMachineInfo(getMachineInfoOffsetAddress(), getMachineInfoSize(), file);
     }
@@ -24,50 +24,105 @@
 
 package photon.file.ui;
 
+import photon.file.parts.PhotonBitmap;
 import photon.file.parts.PhotonFileLayer;
-import photon.file.parts.PhotonLine;
-import photon.file.parts.PhotonRow;
+import photon.file.parts.PhotonLayer;
 
 import javax.swing.*;
 
-import g2c.application.Main;
-
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.BitSet;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
 /**
  * by bn on 02/07/2018.
+ *
+ * The layer is decoded to one color index per pixel in the layer's own orientation, a layer row is a column of the
+ * panel, and drawn transposed.  When the panel is shown smaller than the layer only every n-th row and column is
+ * decoded.
  */
 public class PhotonLayerImage extends JPanel {
+    private static final byte UNKNOWN = 4;
+    private static final IndexColorModel CALCULATED = colors("#008800");
+    private static final IndexColorModel NOT_CALCULATED = colors("#000088");
+
     private int width;
     private int height;
     private float scale = 1f;
-    private BufferedImage image;
     private boolean mirrored;
+    private PhotonFileLayer layer;
+    private int margin;
+    private int step = 1;
+    private WritableRaster raster;
+    private BufferedImage image;
 
     public PhotonLayerImage(int width, int height) {
         this.width = width;
         this.height = height;
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         setPreferredSize(new Dimension(width, height));
     }
 
+    private static IndexColorModel colors(String supported) {
+        Color[] colors = new Color[5];
+        colors[PhotonLayer.OFF] = Color.black;
+        colors[PhotonLayer.SUPPORTED] = Color.decode(supported);
+        colors[PhotonLayer.ISLAND] = Color.decode("#FF0000");
+        colors[PhotonLayer.CONNECTED] = Color.decode("#FFFF00");
+        colors[UNKNOWN] = Color.decode("#008888");
+        byte[] r = new byte[colors.length], g = new byte[colors.length], b = new byte[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            r[i] = (byte) colors[i].getRed();
+            g[i] = (byte) colors[i].getGreen();
+            b[i] = (byte) colors[i].getBlue();
+        }
+        return new IndexColorModel(8, colors.length, r, g, b);
+    }
+
     public void setMirrored(boolean mirrored) {
         this.mirrored = mirrored;
     }
 
     @Override
     protected void paintComponent(Graphics g) {
-    	double scaleX = (double) getVisibleRect().getWidth() / width;
-		double scaleY = (double) (getVisibleRect().getHeight() - 45) / height;
-		System.out.println("bounds = " + getVisibleRect());
-		double scale = Math.min(scaleX, scaleY);
-		int drawWidth = (int) (scale * width);
-		int drawHeight = (int) (scale * height);
-		g.drawImage(image, 0, 0, drawWidth, drawHeight, null);
+        double scale = displayScale();
+        if (layer != null && step(scale) != step) {
+            drawLayer(layer, margin);
+        }
+        int drawWidth = (int) (scale * width);
+        int drawHeight = (int) (scale * height);
+        if (image == null) {
+            g.setColor(Color.black);
+            g.fillRect(0, 0, drawWidth, drawHeight);
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g.create();
+        // raster x runs along a layer row, which is down the panel
+        g2.drawImage(image, new AffineTransform(0, (double) drawHeight / raster.getWidth(), (double) drawWidth / raster.getHeight(), 0, 0, 0), null);
+        if (margin > 0) {
+            g2.scale(scale, scale);
+            g2.setColor(Color.decode("#009999"));
+            g2.drawRect(margin, margin, (width - 1) - 2 * margin, (height - 1) - 2 * margin);
+        }
+        g2.dispose();
+    }
+
+    private double displayScale() {
+        double scaleX = (double) getVisibleRect().getWidth() / width;
+        double scaleY = (double) (getVisibleRect().getHeight() - 45) / height;
+        return Math.min(scaleX, scaleY);
+    }
+
+    /**
+     * @return the rows and columns decoded for every one shown
+     */
+    private static int step(double scale) {
+        return scale > 0 && scale < 1 ? (int) (1 / scale) : 1;
     }
 
     public void setSize(int width, int height) {
@@ -83,72 +138,42 @@ public class PhotonLayerImage extends JPanel {
         this.width = width;
         this.height = height;
 
-        image = new BufferedImage((int) (width * scale), (int) (height * scale), BufferedImage.TYPE_INT_RGB);
+        raster = null;
+        image = null;
         setPreferredSize(new Dimension((int) (width * scale), (int) (height * scale)));
     }
 
     public void drawLayer(PhotonFileLayer layer, int margin) {
+        this.layer = layer;
+        this.margin = margin;
         if (layer != null) {
-            Graphics2D g = image.createGraphics();
-
-            if (mirrored) {
-                AffineTransform transform = new AffineTransform();
-                transform.setToScale(1, -1);
-                transform.translate(0, -image.getHeight());
-                g.setTransform(transform);
-            }
-
-            g.scale(scale, scale);
-
-            g.clearRect(0, 0, width, height);
-
-            if (margin > 0) {
-                int x2 = (width - 1) - margin;
-                int y2 = (height - 1) - margin;
-                g.setColor(Color.decode("#009999"));
-                g.drawLine(margin, margin, x2, margin);
-                g.drawLine(margin, margin, margin, y2);
-                g.drawLine(margin, y2, x2, y2);
-                g.drawLine(x2, margin, x2, y2);
+            step = step(displayScale());
+            int rowLength = (height + step - 1) / step;
+            int rows = (width + step - 1) / step;
+            if (raster == null || raster.getWidth() != rowLength || raster.getHeight() != rows) {
+                raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, rowLength, rows, 1, null);
             }
+            byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+            Arrays.fill(pixels, PhotonLayer.OFF);
 
             if (layer.isCalculated) {
-            	
-                ArrayList<PhotonRow> rows = layer.getRows();
-                if (rows != null) {
-                    int columnNumber = 0;
-                    for (PhotonRow row : rows) {
-                        int i = 0;
-                        for (PhotonLine line : row.lines) {
-                            int end = i + line.length;
-                            if (i == 0) System.out.println("startLength = " + line.length);
-                            if (line.color != Color.black) {
-                                g.setColor(line.color);
-                                g.drawLine(columnNumber + margin, i + margin, columnNumber + margin, end + margin);
-                            }
-                            i = end;
-                        }
-                        columnNumber++;
-                    }
-                }
-
+                layer.unpackLayerImage(step, mirrored, pixels);
             } else {
-                g.setColor(Color.decode("#008888"));
-                int columnNumber = 0;
-                for (BitSet column : layer.getUnknownRows()) {
-                    drawDot(g, columnNumber, column);
-                    columnNumber++;
+                PhotonBitmap columns = layer.getUnknownRows();
+                for (int columnNumber = 0; columnNumber < columns.getHeight(); columnNumber += step) {
+                    drawDots(pixels, rowLength, columnNumber, columns);
                 }
             }
-            
-            g.dispose();
+            image = new BufferedImage(layer.isCalculated ? CALCULATED : NOT_CALCULATED, raster, false, null);
         }
     }
 
-    private void drawDot(Graphics2D g, int columnNumber, BitSet column) {
-        if (!column.isEmpty()) {
-            for (int i = column.nextSetBit(0); i >= 0; i = column.nextSetBit(i + 1)) {
-                g.drawLine(columnNumber, i, columnNumber, i);
+    private void drawDots(byte[] pixels, int rowLength, int columnNumber, PhotonBitmap columns) {
+        int row = (columnNumber / step) * rowLength;
+        for (int i = columns.nextSetBit(0, columnNumber); i >= 0; i = columns.nextSetBit(i + 1, columnNumber)) {
+            int x = mirrored ? height - 1 - i : i;
+            if (x % step == 0) {
+                pixels[row + x / step] = UNKNOWN;
             }
         }
     }